@@ -1,6 +1,9 @@
 package uz.shs.audio_player;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.media.audiofx.AudioEffect;
 import android.media.audiofx.Equalizer;
 import android.media.audiofx.LoudnessEnhancer;
@@ -8,6 +11,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.media3.common.AudioAttributes;
@@ -20,26 +24,20 @@ import androidx.media3.common.PlaybackParameters;
 import androidx.media3.common.Player;
 import androidx.media3.common.Timeline;
 import androidx.media3.common.TrackGroup;
+import androidx.media3.common.TrackSelectionParameters.AudioOffloadPreferences;
 import androidx.media3.common.Tracks;
-import androidx.media3.common.util.Util;
-import androidx.media3.datasource.DataSource;
-import androidx.media3.datasource.DefaultDataSource;
-import androidx.media3.datasource.DefaultHttpDataSource;
+import androidx.media3.common.audio.AudioProcessor;
 import androidx.media3.exoplayer.DefaultLivePlaybackSpeedControl;
 import androidx.media3.exoplayer.DefaultLoadControl;
-import androidx.media3.exoplayer.DefaultRenderersFactory;
 import androidx.media3.exoplayer.ExoPlaybackException;
 import androidx.media3.exoplayer.ExoPlayer;
 import androidx.media3.exoplayer.LivePlaybackSpeedControl;
 import androidx.media3.exoplayer.LoadControl;
-import androidx.media3.exoplayer.dash.DashMediaSource;
-import androidx.media3.exoplayer.hls.HlsMediaSource;
 import androidx.media3.exoplayer.metadata.MetadataOutput;
 import androidx.media3.exoplayer.source.ClippingMediaSource;
 import androidx.media3.exoplayer.source.MediaSource;
-import androidx.media3.exoplayer.source.ProgressiveMediaSource;
+import androidx.media3.exoplayer.source.ShuffleOrder;
 import androidx.media3.exoplayer.source.SilenceMediaSource;
-import androidx.media3.extractor.DefaultExtractorsFactory;
 import androidx.media3.extractor.metadata.icy.IcyHeaders;
 import androidx.media3.extractor.metadata.icy.IcyInfo;
 
@@ -51,14 +49,25 @@ import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class AudioPlayer implements MethodCallHandler, Player.Listener, MetadataOutput {
+public class AudioPlayer implements MethodCallHandler, Player.Listener, MetadataOutput, ExoPlayer.AudioOffloadListener {
 
     static final String TAG = "AudioPlayer";
+    static final int INVALID_PLAYLIST_VERSION = -1;
+    static final long MIN_BUFFER_CHECK_INTERVAL_MS = 200;
+    static final long MAX_BUFFER_CHECK_INTERVAL_MS = 2000;
+    static final long BUFFER_CHECK_STEP_MS = 1000;
 
     private final Context context;
     private final MethodChannel methodChannel;
@@ -68,6 +77,7 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     private ProcessingState processingState;
     private long updatePosition;
     private long updateTime;
+    private long updateElapsedRealtime;
     private long bufferedPosition;
     private Long seekPos;
     private long initialPos;
@@ -76,24 +86,85 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     private Result playResult;
     private Result seekResult;
     private final Map<String, MediaSource> mediaSources = new HashMap<>();
+    private final Map<String, AudioSourceNode> audioSourceNodes = new HashMap<>();
+    private final Random random = new Random();
+    private int playlistVersion;
+    // Set when a diff fails part way through. Only a full load makes the
+    // tree trustworthy again, whatever happens to playlistVersion meanwhile.
+    private boolean playlistInvalid;
+    // Set when the tree's shuffle order changed while shuffle mode was off
+    // and hasn't been pushed to the player yet.
+    private boolean shuffleOrderStale;
+    private final MediaCache mediaCache;
+    private final MediaSourceFactories mediaSourceFactories;
+    private final Prefetcher prefetcher;
+    private final WaveformExtractor waveformExtractor;
+    private final PlaybackEventCoalescer eventCoalescer;
+    private boolean cacheEnabled;
+    private NetworkStack.Configuration networkConfiguration;
+    private RetryPolicy retryPolicy = RetryPolicy.fromJson(null);
+    private Runnable pendingRetry;
     private IcyInfo icyInfo;
     private IcyHeaders icyHeaders;
     private int errorCount;
     private AudioAttributes pendingAudioAttributes;
+    private Map<?, ?> loadControlMap;
     private LoadControl loadControl;
     private final boolean offloadSchedulingEnabled;
+    private Map<?, ?> livePlaybackSpeedControlMap;
     private LivePlaybackSpeedControl livePlaybackSpeedControl;
     private final List<Object> rawAudioEffects;
     private final List<AudioEffect> audioEffects = new ArrayList<>();
     private final Map<String, AudioEffect> audioEffectsMap = new HashMap<>();
     private int lastPlaylistLength = 0;
-    private Map<String, Object> pendingPlaybackEvent;
+    private final PlaybackEventSnapshot playbackEvent = new PlaybackEventSnapshot();
+    private boolean playbackEventPending;
 
+    private boolean adaptiveBufferWatcher;
+    private long lastBufferCheckTime;
+    private long bufferCheckInterval;
     private ExoPlayer player;
+    private boolean playerListening;
+    private boolean offloadedPlayback;
+    // An ExoPlayer being built off the application thread by
+    // initializeEagerly, until ensurePlayerInitialized takes it over.
+    private FutureTask<ExoPlayer> eagerPlayer;
+    // Claimed by whichever of the build task and takeEagerPlayer gets to it
+    // first, so a build still queued isn't waited for.
+    private final AtomicBoolean eagerBuildClaimed = new AtomicBoolean();
+    private volatile long eagerBuildTimeMs;
+    private boolean firstCallHandled;
     private Integer audioSessionId;
-    private MediaSource mediaSource;
+    private AudioSourceNode audioSource;
     private Integer currentIndex;
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final PlaybackThreads playbackThreads;
+    private final String playerId;
+    private final PlayerMetrics metrics;
+    private final ExoPlayerPool playerPool;
+    private final BandwidthManager bandwidthManager;
+    // Caps on the audio bitrate chosen by adaptive track selection, in bps.
+    private Integer preferredPeakBitRate;
+    private Integer meteredMaxBitRate;
+    private final BandwidthManager.MeteredListener meteredListener = this::onMeteredChanged;
+    // Sends a fresh position when the wall clock is set, since events that
+    // would extrapolate from the old clock may have been dropped.
+    private final BroadcastReceiver timeChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (player == null) return;
+            updatePosition();
+            broadcastImmediatePlaybackEvent();
+        }
+    };
+    // Players are only reused by players with an identical configuration.
+    // Null if this player's ExoPlayer can't be pooled.
+    private final Object playerPoolKey;
+    // Replaces the framework AndroidEqualizer effect if configured.
+    private ParametricEqualizer softwareEqualizer;
+    private LoudnessNormalizer loudnessNormalizer;
+    private FadeProcessor fadeProcessor;
+    private VisualizerTap visualizerTap;
+    private final Handler handler;
     private final Runnable bufferWatcher = new Runnable() {
         @Override
         public void run() {
@@ -101,11 +172,16 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                 return;
             }
 
+            long oldBufferedPosition = bufferedPosition;
             long newBufferedPosition = player.getBufferedPosition();
             if (newBufferedPosition != bufferedPosition) {
                 // This method updates bufferedPosition.
                 broadcastImmediatePlaybackEvent();
             }
+            if (adaptiveBufferWatcher) {
+                scheduleAdaptiveBufferCheck(oldBufferedPosition, newBufferedPosition);
+                return;
+            }
             switch (player.getPlaybackState()) {
                 case Player.STATE_BUFFERING:
                     handler.postDelayed(this, 200);
@@ -129,53 +205,171 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
             final String id,
             Map<?, ?> audioLoadConfiguration,
             List<Object> rawAudioEffects,
-            Boolean offloadSchedulingEnabled
+            Boolean offloadSchedulingEnabled,
+            MediaCache mediaCache,
+            MediaSourceFactories mediaSourceFactories,
+            PlaybackThreads playbackThreads,
+            ExoPlayerPool playerPool,
+            BandwidthManager bandwidthManager,
+            LoudnessIndex loudnessIndex,
+            WaveformCache waveformCache
     ) {
         this.context = applicationContext;
+        this.playbackThreads = playbackThreads;
+        this.playerId = id;
+        this.playerPool = playerPool;
+        this.bandwidthManager = bandwidthManager;
+        handler = new Handler(playbackThreads.acquire(
+                audioLoadConfiguration != null ? (String) audioLoadConfiguration.get("androidPlaybackThread") : null,
+                id));
+        this.mediaCache = mediaCache;
+        this.mediaSourceFactories = mediaSourceFactories;
         this.rawAudioEffects = rawAudioEffects;
-        this.offloadSchedulingEnabled = offloadSchedulingEnabled != null ? offloadSchedulingEnabled : false;
         methodChannel = new MethodChannel(messenger, "com.ryanheise.just_audio.methods." + id);
         methodChannel.setMethodCallHandler(this);
         eventChannel = new BetterEventChannel(messenger, "com.ryanheise.just_audio.events." + id);
         dataEventChannel = new BetterEventChannel(messenger, "com.ryanheise.just_audio.data." + id);
+        prefetcher = new Prefetcher(handler, dataEventChannel, mediaCache);
+        waveformExtractor = new WaveformExtractor(handler, dataEventChannel, waveformCache);
         processingState = ProcessingState.none;
+        PlaybackEventCodec eventCodec = null;
+        long eventCoalescingIntervalMs = PlaybackEventCoalescer.DEFAULT_INTERVAL_MS;
+        long positionToleranceMs = PlaybackEventCoalescer.DEFAULT_POSITION_TOLERANCE_MS;
         if (audioLoadConfiguration != null) {
-            Map<?, ?> loadControlMap = (Map<?, ?>) audioLoadConfiguration.get("androidLoadControl");
+            loadControlMap = (Map<?, ?>) audioLoadConfiguration.get("androidLoadControl");
             if (loadControlMap != null) {
-                DefaultLoadControl.Builder builder = new DefaultLoadControl.Builder()
-                        .setBufferDurationsMs(
-                                (int) ((getLong(loadControlMap.get("minBufferDuration"))) / 1000),
-                                (int) ((getLong(loadControlMap.get("maxBufferDuration"))) / 1000),
-                                (int) ((getLong(loadControlMap.get("bufferForPlaybackDuration"))) / 1000),
-                                (int) ((getLong(loadControlMap.get("bufferForPlaybackAfterRebufferDuration"))) / 1000)
-                        )
-                        .setPrioritizeTimeOverSizeThresholds((Boolean) loadControlMap.get("prioritizeTimeOverSizeThresholds"))
-                        .setBackBuffer((int) ((getLong(loadControlMap.get("backBufferDuration"))) / 1000), false);
-                if (loadControlMap.get("targetBufferBytes") != null) {
-                    builder.setTargetBufferBytes((Integer) loadControlMap.get("targetBufferBytes"));
-                }
-                loadControl = builder.build();
+                loadControl = buildLoadControl(loadControlMap);
             }
-            Map<?, ?> livePlaybackSpeedControlMap = (Map<?, ?>) audioLoadConfiguration.get("androidLivePlaybackSpeedControl");
+            livePlaybackSpeedControlMap = (Map<?, ?>) audioLoadConfiguration.get("androidLivePlaybackSpeedControl");
             if (livePlaybackSpeedControlMap != null) {
-                DefaultLivePlaybackSpeedControl.Builder builder = new DefaultLivePlaybackSpeedControl.Builder()
-                        .setFallbackMinPlaybackSpeed((float) ((double) ((Double) livePlaybackSpeedControlMap.get("fallbackMinPlaybackSpeed"))))
-                        .setFallbackMaxPlaybackSpeed((float) ((double) ((Double) livePlaybackSpeedControlMap.get("fallbackMaxPlaybackSpeed"))))
-                        .setMinUpdateIntervalMs(((getLong(livePlaybackSpeedControlMap.get("minUpdateInterval"))) / 1000))
-                        .setProportionalControlFactor((float) ((double) ((Double) livePlaybackSpeedControlMap.get("proportionalControlFactor"))))
-                        .setMaxLiveOffsetErrorMsForUnitSpeed(((getLong(livePlaybackSpeedControlMap.get("maxLiveOffsetErrorForUnitSpeed"))) / 1000))
-                        .setTargetLiveOffsetIncrementOnRebufferMs(((getLong(livePlaybackSpeedControlMap.get("targetLiveOffsetIncrementOnRebuffer"))) / 1000))
-                        .setMinPossibleLiveOffsetSmoothingFactor((float) ((double) ((Double) livePlaybackSpeedControlMap.get("minPossibleLiveOffsetSmoothingFactor"))));
-                livePlaybackSpeedControl = builder.build();
+                livePlaybackSpeedControl = buildLivePlaybackSpeedControl(livePlaybackSpeedControlMap);
+            }
+            adaptiveBufferWatcher = "adaptive".equals(audioLoadConfiguration.get("androidBufferWatcherMode"));
+            if ("binary".equals(audioLoadConfiguration.get("androidEventEncoding"))) {
+                eventCodec = new PlaybackEventCodec();
+                eventChannel.setEncoder(eventCodec);
+            }
+            Long eventCoalescingInterval = getLong(audioLoadConfiguration.get("androidEventCoalescingInterval"));
+            if (eventCoalescingInterval != null) {
+                eventCoalescingIntervalMs = eventCoalescingInterval / 1000;
+            }
+            Long positionTolerance = getLong(audioLoadConfiguration.get("androidPositionTolerance"));
+            if (positionTolerance != null) {
+                positionToleranceMs = positionTolerance / 1000;
+            }
+            meteredMaxBitRate = (Integer) audioLoadConfiguration.get("androidMeteredNetworkMaxBitRate");
+            if (audioLoadConfiguration.containsKey("androidSoftwareEqualizer")) {
+                softwareEqualizer = new ParametricEqualizer((Map<?, ?>) audioLoadConfiguration.get("androidSoftwareEqualizer"));
+                for (Object rawAudioEffect : rawAudioEffects) {
+                    Map<?, ?> json = (Map<?, ?>) rawAudioEffect;
+                    if ("AndroidEqualizer".equals(json.get("type"))) {
+                        softwareEqualizer.setEnabled((Boolean) json.get("enabled"));
+                    }
+                }
+            }
+            if (audioLoadConfiguration.containsKey("androidLoudnessNormalization")) {
+                loudnessNormalizer = new LoudnessNormalizer((Map<?, ?>) audioLoadConfiguration.get("androidLoudnessNormalization"), loudnessIndex);
+            }
+            if (audioLoadConfiguration.containsKey("androidFades")) {
+                fadeProcessor = new FadeProcessor((Map<?, ?>) audioLoadConfiguration.get("androidFades"));
+            }
+            if (audioLoadConfiguration.containsKey("androidVisualizer")) {
+                visualizerTap = new VisualizerTap((Map<?, ?>) audioLoadConfiguration.get("androidVisualizer"), dataEventChannel);
+            }
+            retryPolicy = RetryPolicy.fromJson((Map<?, ?>) audioLoadConfiguration.get("androidRetryPolicy"));
+            networkConfiguration = NetworkStack.Configuration.fromJson((Map<?, ?>) audioLoadConfiguration.get("androidNetworkConfiguration"));
+            Map<?, ?> cacheMap = (Map<?, ?>) audioLoadConfiguration.get("androidCache");
+            if (cacheMap != null) {
+                mediaCache.configure(cacheMap);
+                cacheEnabled = true;
             }
         }
+        metrics = new PlayerMetrics(
+                audioLoadConfiguration != null ? (Map<?, ?>) audioLoadConfiguration.get("androidMetrics") : null,
+                handler,
+                dataEventChannel);
+        if (meteredMaxBitRate != null) {
+            bandwidthManager.addMeteredListener(meteredListener);
+        }
+        eventCoalescer = new PlaybackEventCoalescer(handler, eventChannel, eventCoalescingIntervalMs, positionToleranceMs, metrics, eventCodec);
+        context.registerReceiver(timeChangedReceiver, new IntentFilter(Intent.ACTION_TIME_CHANGED), null, handler);
+        boolean offload = offloadSchedulingEnabled != null ? offloadSchedulingEnabled : false;
+        if (offload && hasAudioProcessors()) {
+            // Offloaded audio is decoded by the DSP and bypasses audio
+            // processors, so the equalizer, normalization, fades and
+            // visualizer would silently stop working. ExoPlayer's offload
+            // mode is disabled by default, and these players are never
+            // pooled, so leaving it unset keeps it disabled.
+            Log.w(TAG, "Audio offload is disabled for player " + id + " because it uses audio processors");
+            offload = false;
+        }
+        this.offloadSchedulingEnabled = offload;
+        // Audio processors belong to this player, so an ExoPlayer built with
+        // them can't be handed to another player.
+        playerPoolKey = hasAudioProcessors() ? null : Arrays.asList(
+                handler.getLooper(),
+                audioLoadConfiguration != null ? audioLoadConfiguration.get("androidLoadControl") : null,
+                audioLoadConfiguration != null ? audioLoadConfiguration.get("androidLivePlaybackSpeedControl") : null,
+                this.offloadSchedulingEnabled);
     }
 
     private void startWatchingBuffer() {
         handler.removeCallbacks(bufferWatcher);
+        lastBufferCheckTime = SystemClock.uptimeMillis();
+        bufferCheckInterval = MIN_BUFFER_CHECK_INTERVAL_MS;
         handler.post(bufferWatcher);
     }
 
+    // In adaptive mode the buffer is only watched while ExoPlayer is
+    // loading, and the interval is chosen so that each check sees roughly
+    // BUFFER_CHECK_STEP_MS of newly buffered media. A stalled buffer backs
+    // off exponentially.
+    private void scheduleAdaptiveBufferCheck(long oldBufferedPosition, long newBufferedPosition) {
+        if (!player.isLoading()) {
+            // onIsLoadingChanged restarts the watcher.
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastBufferCheckTime;
+        lastBufferCheckTime = now;
+        long interval;
+        if (newBufferedPosition > oldBufferedPosition && elapsed > 0) {
+            double rate = (double) (newBufferedPosition - oldBufferedPosition) / elapsed;
+            interval = (long) (BUFFER_CHECK_STEP_MS / rate);
+        } else {
+            interval = bufferCheckInterval * 2;
+        }
+        bufferCheckInterval = Math.max(MIN_BUFFER_CHECK_INTERVAL_MS, Math.min(MAX_BUFFER_CHECK_INTERVAL_MS, interval));
+        handler.postDelayed(bufferWatcher, bufferCheckInterval);
+    }
+
+    @Override
+    public void onIsLoadingChanged(boolean isLoading) {
+        if (!adaptiveBufferWatcher) return;
+        if (isLoading) {
+            startWatchingBuffer();
+        } else {
+            handler.removeCallbacks(bufferWatcher);
+            if (player.getBufferedPosition() != bufferedPosition) {
+                broadcastImmediatePlaybackEvent();
+            }
+        }
+    }
+
+    @Override
+    public void onOffloadedPlaybackChanged(boolean offloadedPlayback) {
+        this.offloadedPlayback = offloadedPlayback;
+        broadcastImmediatePlaybackEvent();
+    }
+
+    @Override
+    public void onIsPlayingChanged(boolean isPlaying) {
+        // Events carry the rate at which the position advances, so listeners
+        // need a fresh position whenever that rate starts or stops.
+        updatePosition();
+        broadcastImmediatePlaybackEvent();
+    }
+
     private void setAudioSessionId(int audioSessionId) {
         if (audioSessionId == C.AUDIO_SESSION_ID_UNSET) {
             this.audioSessionId = null;
@@ -186,6 +380,7 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
         if (this.audioSessionId != null) {
             for (Object rawAudioEffect : rawAudioEffects) {
                 Map<?, ?> json = (Map<?, ?>) rawAudioEffect;
+                if (softwareEqualizer != null && "AndroidEqualizer".equals(json.get("type"))) continue;
                 AudioEffect audioEffect = decodeAudioEffect(rawAudioEffect, this.audioSessionId);
                 if ((Boolean) json.get("enabled")) {
                     audioEffect.setEnabled(true);
@@ -216,6 +411,7 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
 
     @Override
     public void onTracksChanged(Tracks tracks) {
+        boolean icyHeadersChanged = false;
         for (int i = 0; i < tracks.getGroups().size(); i++) {
             TrackGroup trackGroup = tracks.getGroups().get(i).getMediaTrackGroup();
 
@@ -227,22 +423,27 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                         final Metadata.Entry entry = metadata.get(k);
                         if (entry instanceof IcyHeaders) {
                             icyHeaders = (IcyHeaders) entry;
-                            broadcastImmediatePlaybackEvent();
+                            icyHeadersChanged = true;
                         }
                     }
                 }
             }
         }
+        if (icyHeadersChanged) {
+            broadcastImmediatePlaybackEvent();
+        }
     }
 
     private void updatePositionIfChanged() {
         if (getCurrentPosition() == updatePosition) return;
-        updatePosition = getCurrentPosition();
-        updateTime = System.currentTimeMillis();
+        updatePosition();
     }
 
     private void updatePosition() {
         updatePosition = getCurrentPosition();
+        updateElapsedRealtime = SystemClock.elapsedRealtime();
+        // Read per update since listeners extrapolate from the wall clock,
+        // which may have been set since the last update.
         updateTime = System.currentTimeMillis();
     }
 
@@ -304,6 +505,7 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     public void onPlaybackStateChanged(int playbackState) {
         switch (playbackState) {
             case Player.STATE_READY:
+                errorCount = 0;
                 if (player.getPlayWhenReady())
                     updatePosition();
                 processingState = ProcessingState.ready;
@@ -373,27 +575,56 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                 default:
                     Log.e(TAG, "default ExoPlaybackException: " + exoError.getUnexpectedException().getMessage());
             }
-            // TODO: send both errorCode and type
-            sendError(String.valueOf(exoError.type), exoError.getMessage(), mapOf("index", currentIndex));
         } else {
             Log.e(TAG, "default PlaybackException: " + error.getMessage());
-            sendError(String.valueOf(error.errorCode), error.getMessage(), mapOf("index", currentIndex));
         }
         errorCount++;
-        if (player.hasNextMediaItem() && currentIndex != null && errorCount <= 5) {
+        int action = retryPolicy.getPlayerRetryAction(error, errorCount);
+        long retryDelayMs = retryPolicy.getBackoffDelayMs(errorCount);
+        if (action == RetryPolicy.ACTION_RESUME) {
+            // A transient failure that outlasted the loader's own retries.
+            // The playlist survives the error, so re-prepare and continue
+            // from where playback stopped.
+            Log.w(TAG, "Resuming after error in " + retryDelayMs + "ms");
+            scheduleRetry(player.getCurrentMediaItemIndex(), player.getCurrentPosition(), retryDelayMs);
+            return;
+        }
+        if (error instanceof ExoPlaybackException) {
+            // TODO: send both errorCode and type
+            sendError(String.valueOf(((ExoPlaybackException) error).type), error.getMessage(), mapOf("index", currentIndex));
+        } else {
+            sendError(String.valueOf(error.errorCode), error.getMessage(), mapOf("index", currentIndex));
+        }
+        if (action == RetryPolicy.ACTION_SKIP && player.hasNextMediaItem() && currentIndex != null) {
             int nextIndex = currentIndex + 1;
             Timeline timeline = player.getCurrentTimeline();
             // This condition is due to: https://github.com/ryanheise/just_audio/pull/310
             if (nextIndex < timeline.getWindowCount()) {
-                // TODO: pass in initial position here.
-                player.setMediaSource(mediaSource);
-                player.prepare();
-                player.seekTo(nextIndex, 0);
+                scheduleRetry(nextIndex, 0, retryDelayMs);
             }
         }
     }
 
+    private void scheduleRetry(final int index, final long positionMs, long delayMs) {
+        cancelRetry();
+        pendingRetry = () -> {
+            pendingRetry = null;
+            if (player == null || player.getPlaybackState() != Player.STATE_IDLE) return;
+            player.prepare();
+            player.seekTo(index, positionMs);
+        };
+        handler.postDelayed(pendingRetry, delayMs);
+    }
+
+    private void cancelRetry() {
+        if (pendingRetry != null) {
+            handler.removeCallbacks(pendingRetry);
+            pendingRetry = null;
+        }
+    }
+
     private void completeSeek() {
+        metrics.onSeekCompleted();
         seekPos = null;
         seekResult.success(new HashMap<String, Object>());
         seekResult = null;
@@ -401,14 +632,40 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
 
     @Override
     public void onMethodCall(@NonNull final MethodCall call, @NonNull final Result result) {
-        ensurePlayerInitialized();
+        if (handler.getLooper() != Looper.myLooper()) {
+            final Result mainThreadResult = new MainThreadResult(result);
+            // Posting fails once a dedicated looper has quit after dispose.
+            if (!handler.post(() -> handleMethodCall(call, mainThreadResult))) {
+                mainThreadResult.error("Player " + playerId + " has been disposed", null, null);
+            }
+        } else {
+            handleMethodCall(call, result);
+        }
+    }
 
+    private void handleMethodCall(final MethodCall call, final Result result) {
+        if (!firstCallHandled) {
+            firstCallHandled = true;
+            // The cold start cost that the first call actually pays.
+            long startTime = SystemClock.elapsedRealtime();
+            ensurePlayerInitialized();
+            metrics.onFirstCall(SystemClock.elapsedRealtime() - startTime);
+        } else {
+            ensurePlayerInitialized();
+        }
+
+        long startTimeNs = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
             switch (call.method) {
                 case "load":
                     Long initialPosition = getLong(call.argument("initialPosition"));
                     Integer initialIndex = call.argument("initialIndex");
-                    load(getAudioSource(call.argument("audioSource")),
+                    audioSourceNodes.clear();
+                    AudioSourceNode audioSourceNode = decodeAudioSourceNode(call.argument("audioSource"));
+                    // Sources that are still in the new tree were reused
+                    // above, and the rest are dropped.
+                    mediaSources.keySet().retainAll(audioSourceNodes.keySet());
+                    load(audioSourceNode,
                             initialPosition == null ? C.TIME_UNSET : initialPosition / 1000,
                             initialIndex, result);
                     break;
@@ -427,6 +684,14 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                     setSpeed((float) ((double) ((Double) call.argument("speed"))));
                     result.success(new HashMap<String, Object>());
                     break;
+                case "fade":
+                    fade(call.argument("volume"), getLong(call.argument("duration")), call.argument("curve"));
+                    result.success(new HashMap<String, Object>());
+                    break;
+                case "setTransition":
+                    setTransition(call.arguments());
+                    result.success(new HashMap<String, Object>());
+                    break;
                 case "setPitch":
                     setPitch((float) ((double) ((Double) call.argument("pitch"))));
                     result.success(new HashMap<String, Object>());
@@ -449,7 +714,10 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                     break;
                 case "setAutomaticallyWaitsToMinimizeStalling":
                 case "setCanUseNetworkResourcesForLiveStreamingWhilePaused":
+                    result.success(new HashMap<String, Object>());
+                    break;
                 case "setPreferredPeakBitRate":
+                    setPreferredPeakBitRate(call.argument("bitRate"));
                     result.success(new HashMap<String, Object>());
                     break;
                 case "seek":
@@ -458,22 +726,41 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                     seek(position == null ? C.TIME_UNSET : position / 1000, index, result);
                     break;
                 case "concatenatingInsertAll":
-//                concatenating(call.argument("id"))
-//                        .addMediaSources(call.argument("index"), getAudioSources(call.argument("children")), handler, () -> result.success(new HashMap<String, Object>()));
-//                concatenating(call.argument("id"))
-//                        .setShuffleOrder(decodeShuffleOrder(call.argument("shuffleOrder")));
+                    concatenatingInsertAll(call.argument("id"), call.argument("index"), call.argument("children"), call.argument("shuffleOrder"));
+                    applyShuffleOrder();
+                    playlistVersion++;
+                    result.success(new HashMap<String, Object>());
                     break;
                 case "concatenatingRemoveRange":
-//                concatenating(call.argument("id"))
-//                        .removeMediaSourceRange(call.argument("startIndex"), call.argument("endIndex"), handler, () -> result.success(new HashMap<String, Object>()));
-//                concatenating(call.argument("id"))
-//                        .setShuffleOrder(decodeShuffleOrder(call.argument("shuffleOrder")));
+                    concatenatingRemoveRange(call.argument("id"), call.argument("startIndex"), call.argument("endIndex"), call.argument("shuffleOrder"));
+                    applyShuffleOrder();
+                    playlistVersion++;
+                    result.success(new HashMap<String, Object>());
                     break;
                 case "concatenatingMove":
-//                concatenating(call.argument("id"))
-//                        .moveMediaSource(call.argument("currentIndex"), call.argument("newIndex"), handler, () -> result.success(new HashMap<String, Object>()));
-//                concatenating(call.argument("id"))
-//                        .setShuffleOrder(decodeShuffleOrder(call.argument("shuffleOrder")));
+                    concatenatingMove(call.argument("id"), call.argument("currentIndex"), call.argument("newIndex"), call.argument("shuffleOrder"));
+                    applyShuffleOrder();
+                    playlistVersion++;
+                    result.success(new HashMap<String, Object>());
+                    break;
+                case "applyPlaylistDiff":
+                    result.success(applyPlaylistDiff(call.argument("baseVersion"), call.argument("operations")));
+                    break;
+                case "prefetch":
+                    prefetch(call.argument("audioSources"), call.argument("count"), getLong(call.argument("maxBytes")));
+                    result.success(new HashMap<String, Object>());
+                    break;
+                case "cancelPrefetch":
+                    prefetcher.cancel();
+                    result.success(new HashMap<String, Object>());
+                    break;
+                case "extractWaveform":
+                    extractWaveform(call.argument("id"), call.argument("audioSource"), call.argument("bucketsPerSecond"));
+                    result.success(new HashMap<String, Object>());
+                    break;
+                case "cancelWaveform":
+                    waveformExtractor.cancel(call.argument("id"));
+                    result.success(new HashMap<String, Object>());
                     break;
                 case "setAndroidAudioAttributes":
                     setAudioAttributes(call.argument("contentType"), call.argument("flags"), call.argument("usage"));
@@ -494,10 +781,18 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                     equalizerBandSetGain(call.argument("bandIndex"), call.argument("gain"));
                     result.success(new HashMap<String, Object>());
                     break;
+                case "getMetrics":
+                    if (!metrics.isEnabled()) {
+                        throw new IllegalStateException("Metrics are not enabled for this player");
+                    }
+                    result.success(metrics.snapshot());
+                    break;
                 default:
                     result.notImplemented();
                     break;
             }
+        } catch (PlaylistVersionMismatchException e) {
+            result.error("playlistVersionMismatch", e.getMessage(), mapOf("version", e.version));
         } catch (IllegalStateException e) {
             e.printStackTrace();
             result.error("Illegal state: " + e.getMessage(), null, null);
@@ -506,119 +801,354 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
             result.error("Error: " + e, null, null);
         } finally {
             broadcastPendingPlaybackEvent();
+            eventCoalescer.flush();
+            if (startTimeNs != 0) {
+                metrics.recordMethodCall(call.method, System.nanoTime() - startTimeNs);
+            }
         }
     }
 
     private void setShuffleOrder(final Object json) {
+        updateShuffleOrder(json);
+        applyShuffleOrder();
+    }
+
+    private void updateShuffleOrder(final Object json) {
         Map<?, ?> map = (Map<?, ?>) json;
-        String id = mapGet(map, "id");
-        MediaSource mediaSource = mediaSources.get(id);
-        if (mediaSource == null) return;
+        AudioSourceNode node = audioSourceNodes.get((String) mapGet(map, "id"));
+        if (node == null) return;
         switch ((String) mapGet(map, "type")) {
             case "concatenating":
+                ((AudioSourceNode.Concatenating) node).setShuffleOrder(decodeShuffleOrder(mapGet(map, "shuffleOrder")));
                 List<Object> children = mapGet(map, "children");
                 for (Object child : children) {
-                    setShuffleOrder(child);
+                    updateShuffleOrder(child);
                 }
                 break;
             case "looping":
-                setShuffleOrder(mapGet(map, "child"));
+                updateShuffleOrder(mapGet(map, "child"));
                 break;
         }
     }
 
-    private MediaSource getAudioSource(final Object json) {
+    // Pushes the shuffle order of the whole tree to the player. ExoPlayer
+    // only has a single shuffle order so the per-concatenating orders from
+    // Dart are flattened into it. That walks the whole tree, so it is
+    // deferred while shuffle mode is off: ExoPlayer updates its own order
+    // incrementally as items are added, removed and moved, and the order
+    // only matters once shuffle mode is turned on.
+    private void applyShuffleOrder() {
+        if (audioSource == null) return;
+        if (!player.getShuffleModeEnabled()) {
+            shuffleOrderStale = true;
+            return;
+        }
+        rebuildShuffleOrder();
+    }
+
+    private void rebuildShuffleOrder() {
+        shuffleOrderStale = false;
+        player.setShuffleOrder(new ShuffleOrder.DefaultShuffleOrder(audioSource.buildShuffleOrder(), random.nextLong()));
+    }
+
+    private AudioSourceNode.Concatenating concatenating(final String id) {
+        return (AudioSourceNode.Concatenating) audioSourceNodes.get(id);
+    }
+
+    // The playlist edits below are applied to the player incrementally at
+    // every place the concatenating source appears in the playlist, from
+    // last to first so that earlier offsets stay valid. A concatenating
+    // source that isn't part of the loaded tree is ignored since Dart sends
+    // the whole tree again on the next load.
+
+    private void concatenatingInsertAll(final String id, final int index, final List<?> children, final List<Integer> shuffleOrder) {
+        AudioSourceNode.Concatenating concatenating = concatenating(id);
+        if (concatenating == null) return;
+        List<AudioSourceNode> nodes = decodeAudioSourceNodes(children);
+        List<MediaSource> mediaSources = new ArrayList<>();
+        for (AudioSourceNode node : nodes) {
+            node.collectMediaSources(mediaSources);
+        }
+        int childOffset = concatenating.getChildOffset(index);
+        List<Integer> offsets = concatenating.getOffsets();
+        concatenating.insert(index, nodes);
+        concatenating.setShuffleOrder(decodeShuffleOrder(shuffleOrder));
+        for (int i = offsets.size() - 1; i >= 0; i--) {
+            player.addMediaSources(offsets.get(i) + childOffset, mediaSources);
+        }
+    }
+
+    private void concatenatingRemoveRange(final String id, final int startIndex, final int endIndex, final List<Integer> shuffleOrder) {
+        AudioSourceNode.Concatenating concatenating = concatenating(id);
+        if (concatenating == null) return;
+        int fromOffset = concatenating.getChildOffset(startIndex);
+        int toOffset = concatenating.getChildOffset(endIndex);
+        List<Integer> offsets = concatenating.getOffsets();
+        for (AudioSourceNode node : concatenating.removeRange(startIndex, endIndex)) {
+            unregisterAudioSourceNode(node);
+        }
+        concatenating.setShuffleOrder(decodeShuffleOrder(shuffleOrder));
+        for (int i = offsets.size() - 1; i >= 0; i--) {
+            player.removeMediaItems(offsets.get(i) + fromOffset, offsets.get(i) + toOffset);
+        }
+    }
+
+    private void concatenatingMove(final String id, final int currentIndex, final int newIndex, final List<Integer> shuffleOrder) {
+        AudioSourceNode.Concatenating concatenating = concatenating(id);
+        if (concatenating == null) return;
+        int size = concatenating.getChild(currentIndex).size;
+        int fromOffset = concatenating.getChildOffset(currentIndex);
+        concatenating.move(currentIndex, newIndex);
+        int newFromOffset = concatenating.getChildOffset(newIndex);
+        concatenating.setShuffleOrder(decodeShuffleOrder(shuffleOrder));
+        for (int offset : concatenating.getOffsets()) {
+            player.moveMediaItems(offset + fromOffset, offset + fromOffset + size, offset + newFromOffset);
+        }
+    }
+
+    private void replaceAudioSource(final String id, final Object json) {
+        AudioSourceNode node = audioSourceNodes.get(id);
+        if (node == null) return;
+        if (!(node.parent instanceof AudioSourceNode.Concatenating)) {
+            throw new IllegalArgumentException("Only children of a concatenating source can be replaced: " + id);
+        }
+        AudioSourceNode.Concatenating concatenating = (AudioSourceNode.Concatenating) node.parent;
+        int index = concatenating.indexOf(node);
+        int[] shuffleOrder = concatenating.getShuffleOrder();
+        concatenatingRemoveRange(concatenating.id, index, index + 1, null);
+        concatenatingInsertAll(concatenating.id, index, Collections.singletonList(json), null);
+        concatenating.setShuffleOrder(shuffleOrder);
+    }
+
+    // Applies a batch of playlist edits against the loaded tree. Dart sends
+    // the version it last saw and only the changed sources, so edits cost
+    // O(changed items) instead of re-sending and re-walking the whole tree.
+    // If Dart's version doesn't match ours the two sides have drifted and
+    // Dart should load the whole tree again.
+    private Map<String, Object> applyPlaylistDiff(final Integer baseVersion, final List<?> operations) {
+        if (audioSource == null) {
+            throw new IllegalStateException("Cannot apply a playlist diff before load");
+        }
+        if (playlistInvalid) {
+            throw new PlaylistVersionMismatchException(baseVersion, INVALID_PLAYLIST_VERSION);
+        }
+        if (baseVersion == null || baseVersion != playlistVersion) {
+            throw new PlaylistVersionMismatchException(baseVersion, playlistVersion);
+        }
+        try {
+            for (Object operation : operations) {
+                Map<?, ?> map = (Map<?, ?>) operation;
+                String id = (String) map.get("id");
+                switch ((String) map.get("type")) {
+                    case "insert":
+                        concatenatingInsertAll(id, (Integer) map.get("index"), (List<?>) map.get("children"), mapGet(map, "shuffleOrder"));
+                        break;
+                    case "remove":
+                        concatenatingRemoveRange(id, (Integer) map.get("startIndex"), (Integer) map.get("endIndex"), mapGet(map, "shuffleOrder"));
+                        break;
+                    case "move":
+                        concatenatingMove(id, (Integer) map.get("currentIndex"), (Integer) map.get("newIndex"), mapGet(map, "shuffleOrder"));
+                        break;
+                    case "replace":
+                        replaceAudioSource(id, map.get("audioSource"));
+                        break;
+                    case "shuffle":
+                        AudioSourceNode.Concatenating concatenating = concatenating(id);
+                        if (concatenating != null) {
+                            concatenating.setShuffleOrder(decodeShuffleOrder(mapGet(map, "shuffleOrder")));
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown playlist operation: " + map.get("type"));
+                }
+            }
+        } catch (RuntimeException e) {
+            // The tree may be partially edited so force Dart to reload it.
+            playlistInvalid = true;
+            throw e;
+        }
+        applyShuffleOrder();
+        playlistVersion++;
+        return mapOf("version", playlistVersion, "length", audioSource.size);
+    }
+
+    private void unregisterAudioSourceNode(final AudioSourceNode node) {
+        // Another node may have been registered under the same id since.
+        if (audioSourceNodes.get(node.id) == node) {
+            audioSourceNodes.remove(node.id);
+            mediaSources.remove(node.id);
+        }
+        List<AudioSourceNode> children = new ArrayList<>();
+        node.collectChildren(children);
+        for (AudioSourceNode child : children) {
+            unregisterAudioSourceNode(child);
+        }
+    }
+
+    private AudioSourceNode decodeAudioSourceNode(final Object json) {
         Map<?, ?> map = (Map<?, ?>) json;
         String id = (String) map.get("id");
+        AudioSourceNode node;
+        switch ((String) map.get("type")) {
+            case "concatenating":
+                node = new AudioSourceNode.Concatenating(id,
+                        decodeAudioSourceNodes(map.get("children")),
+                        decodeShuffleOrder(mapGet(map, "shuffleOrder")));
+                break;
+            case "looping":
+                node = new AudioSourceNode.Looping(id,
+                        decodeAudioSourceNode(map.get("child")),
+                        (Integer) map.get("count"));
+                break;
+            default:
+                node = new AudioSourceNode.Leaf(id, getAudioSource(map));
+                break;
+        }
+        audioSourceNodes.put(id, node);
+        return node;
+    }
+
+    private List<AudioSourceNode> decodeAudioSourceNodes(final Object json) {
+        if (!(json instanceof List)) throw new RuntimeException("List expected: " + json);
+        List<?> audioSources = (List<?>) json;
+        List<AudioSourceNode> nodes = new ArrayList<>(audioSources.size());
+        for (Object audioSource : audioSources) {
+            nodes.add(decodeAudioSourceNode(audioSource));
+        }
+        return nodes;
+    }
+
+    private static int[] decodeShuffleOrder(final List<Integer> indexList) {
+        if (indexList == null) return null;
+        int[] shuffleOrder = new int[indexList.size()];
+        for (int i = 0; i < shuffleOrder.length; i++) {
+            shuffleOrder[i] = indexList.get(i);
+        }
+        return shuffleOrder;
+    }
+
+    // Returns a lazily built media source for a leaf audio source, reusing
+    // any previously built source with the same id.
+    private MediaSource getAudioSource(final Object json) {
+        final Map<?, ?> map = (Map<?, ?>) json;
+        String id = (String) map.get("id");
         MediaSource mediaSource = mediaSources.get(id);
         if (mediaSource == null) {
-            mediaSource = decodeAudioSource(map);
+            mediaSource = new LazyMediaSource(
+                    new MediaItem.Builder().setMediaId(id).setTag(id).build(),
+                    () -> decodeAudioSource(map));
             mediaSources.put(id, mediaSource);
         }
         return mediaSource;
     }
 
-    private DefaultExtractorsFactory buildExtractorsFactory(Map<?, ?> options) {
-        DefaultExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
-        boolean constantBitrateSeekingEnabled = true;
-        boolean constantBitrateSeekingAlwaysEnabled = false;
-        int mp3Flags = 0;
-        if (options != null) {
-            Map<?, ?> androidExtractorOptions = (Map<?, ?>) options.get("androidExtractorOptions");
-            if (androidExtractorOptions != null) {
-                constantBitrateSeekingEnabled = (Boolean) androidExtractorOptions.get("constantBitrateSeekingEnabled");
-                constantBitrateSeekingAlwaysEnabled = (Boolean) androidExtractorOptions.get("constantBitrateSeekingAlwaysEnabled");
-                mp3Flags = (Integer) androidExtractorOptions.get("mp3Flags");
-            }
-        }
-        extractorsFactory.setConstantBitrateSeekingEnabled(constantBitrateSeekingEnabled);
-        extractorsFactory.setConstantBitrateSeekingAlwaysEnabled(constantBitrateSeekingAlwaysEnabled);
-        extractorsFactory.setMp3ExtractorFlags(mp3Flags);
-        return extractorsFactory;
-    }
-
+    // Builds the media source for a leaf audio source. This may run on the
+    // playback thread via LazyMediaSource so it must not touch player state.
     private MediaSource decodeAudioSource(final Object json) {
         Map<?, ?> map = (Map<?, ?>) json;
         String id = (String) map.get("id");
         switch ((String) map.get("type")) {
-            case "progressive":
-                return new ProgressiveMediaSource.Factory(buildDataSourceFactory(mapGet(map, "headers")), buildExtractorsFactory(mapGet(map, "options")))
+            case "progressive": {
+                Uri uri = Uri.parse((String) map.get("uri"));
+                Map<?, ?> options = mapGet(map, "options");
+                return mediaSourceFactories.getProgressiveFactory(
+                        castToStringMap(mapGet(map, "headers")),
+                        options != null ? (Map<?, ?>) options.get("androidExtractorOptions") : null,
+                        MediaSourceFactories.shouldCache(cacheEnabled, uri),
+                        networkConfiguration,
+                        retryPolicy)
                         .createMediaSource(new MediaItem.Builder()
-                                .setUri(Uri.parse((String) map.get("uri")))
+                                .setUri(uri)
                                 .setTag(id)
                                 .build());
-            case "dash":
-                return new DashMediaSource.Factory(buildDataSourceFactory(mapGet(map, "headers")))
+            }
+            case "dash": {
+                Uri uri = Uri.parse((String) map.get("uri"));
+                return mediaSourceFactories.getDashFactory(castToStringMap(mapGet(map, "headers")), MediaSourceFactories.shouldCache(cacheEnabled, uri), networkConfiguration, retryPolicy)
                         .createMediaSource(new MediaItem.Builder()
-                                .setUri(Uri.parse((String) map.get("uri")))
+                                .setUri(uri)
                                 .setMimeType(MimeTypes.APPLICATION_MPD)
                                 .setTag(id)
                                 .build());
-            case "hls":
-                return new HlsMediaSource.Factory(buildDataSourceFactory(mapGet(map, "headers")))
+            }
+            case "hls": {
+                Uri uri = Uri.parse((String) map.get("uri"));
+                return mediaSourceFactories.getHlsFactory(castToStringMap(mapGet(map, "headers")), MediaSourceFactories.shouldCache(cacheEnabled, uri), networkConfiguration, retryPolicy)
                         .createMediaSource(new MediaItem.Builder()
-                                .setUri(Uri.parse((String) map.get("uri")))
+                                .setUri(uri)
                                 .setMimeType(MimeTypes.APPLICATION_M3U8)
                                 .build());
+            }
             case "silence":
                 return new SilenceMediaSource.Factory()
                         .setDurationUs(getLong(map.get("duration")))
                         .setTag(id)
                         .createMediaSource();
-            case "concatenating":
-//            MediaSource[] mediaSources = getAudioSourcesArray(map.get("children"));
-//            return new ConcatenatingMediaSource(
-//                    false, // isAtomic
-//                    (Boolean)map.get("useLazyPreparation"),
-//                    decodeShuffleOrder(mapGet(map, "shuffleOrder")),
-//                    mediaSources);
             case "clipping":
                 Long start = getLong(map.get("start"));
                 Long end = getLong(map.get("end"));
-                return new ClippingMediaSource(getAudioSource(map.get("child")),
+                return new ClippingMediaSource(decodeAudioSource(map.get("child")),
                         start != null ? start : 0,
                         end != null ? end : C.TIME_END_OF_SOURCE);
-            case "looping":
-//            Integer count = (Integer)map.get("count");
-//            MediaSource looperChild = getAudioSource(map.get("child"));
-//            MediaSource[] looperChildren = new MediaSource[count];
-//            for (int i = 0; i < looperChildren.length; i++) {
-//                looperChildren[i] = looperChild;
-//            }
-//            return new ConcatenatingMediaSource(looperChildren);
             default:
                 throw new IllegalArgumentException("Unknown AudioSource type: " + map.get("type"));
         }
     }
 
-    private List<MediaSource> getAudioSources(final Object json) {
-        if (!(json instanceof List)) throw new RuntimeException("List expected: " + json);
-        List<?> audioSources = (List<?>) json;
-        List<MediaSource> mediaSources = new ArrayList<MediaSource>();
-        for (int i = 0; i < audioSources.size(); i++) {
-            mediaSources.add(getAudioSource(audioSources.get(i)));
+    // Starts warming the cache with the first maxBytes of each of the first
+    // count progressive sources found in audioSources. Progress is reported
+    // on the data channel.
+    private void prefetch(final List<?> audioSources, final Integer count, final Long maxBytes) {
+        if (!cacheEnabled) {
+            throw new IllegalStateException("Prefetching requires androidCache to be configured");
+        }
+        List<Map<?, ?>> targets = new ArrayList<>();
+        for (Object json : audioSources) {
+            collectPrefetchTargets(json, targets);
+        }
+        int n = count != null ? Math.min(count, targets.size()) : targets.size();
+        for (int i = 0; i < n; i++) {
+            Map<?, ?> map = targets.get(i);
+            Uri uri = Uri.parse((String) map.get("uri"));
+            if (!MediaCache.isCacheable(uri)) continue;
+            Map<String, String> headers = castToStringMap(mapGet(map, "headers"));
+            prefetcher.prefetch((String) map.get("id"), uri, mediaSourceFactories.getDataSourceFactory(headers, networkConfiguration), headers,
+                    maxBytes != null ? maxBytes : Prefetcher.DEFAULT_MAX_BYTES);
+        }
+    }
+
+    private void extractWaveform(final String id, final Map<?, ?> map, final Integer bucketsPerSecond) {
+        if (!"progressive".equals(map.get("type"))) {
+            throw new IllegalStateException("Waveforms can only be extracted from progressive sources");
+        }
+        if (bucketsPerSecond != null && bucketsPerSecond <= 0) {
+            throw new IllegalArgumentException("bucketsPerSecond must be positive");
+        }
+        Uri uri = Uri.parse((String) map.get("uri"));
+        Map<String, String> headers = castToStringMap(mapGet(map, "headers"));
+        Map<?, ?> options = mapGet(map, "options");
+        waveformExtractor.extract(id, uri, headers,
+                mediaSourceFactories.getMaybeCachedFactory(headers, MediaSourceFactories.shouldCache(cacheEnabled, uri), networkConfiguration),
+                MediaSourceFactories.buildExtractorsFactory(options != null ? (Map<?, ?>) options.get("androidExtractorOptions") : null),
+                bucketsPerSecond != null ? bucketsPerSecond : WaveformExtractor.DEFAULT_BUCKETS_PER_SECOND);
+    }
+
+    private static void collectPrefetchTargets(final Object json, final List<Map<?, ?>> targets) {
+        Map<?, ?> map = (Map<?, ?>) json;
+        switch ((String) map.get("type")) {
+            case "progressive":
+                targets.add(map);
+                break;
+            case "clipping":
+            case "looping":
+                collectPrefetchTargets(map.get("child"), targets);
+                break;
+            case "concatenating":
+                for (Object child : (List<?>) map.get("children")) {
+                    collectPrefetchTargets(child, targets);
+                }
+                break;
         }
-        return mediaSources;
     }
 
     private AudioEffect decodeAudioEffect(final Object json, int audioSessionId) {
@@ -648,28 +1178,7 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
         audioEffectsMap.clear();
     }
 
-    private DataSource.Factory buildDataSourceFactory(Map<?, ?> headers) {
-        final Map<String, String> stringHeaders = castToStringMap(headers);
-        String userAgent = null;
-        if (stringHeaders != null) {
-            userAgent = stringHeaders.remove("User-Agent");
-            if (userAgent == null) {
-                userAgent = stringHeaders.remove("user-agent");
-            }
-        }
-        if (userAgent == null) {
-            userAgent = Util.getUserAgent(context, "just_audio");
-        }
-        DefaultHttpDataSource.Factory httpDataSourceFactory = new DefaultHttpDataSource.Factory()
-                .setUserAgent(userAgent)
-                .setAllowCrossProtocolRedirects(true);
-        if (stringHeaders != null && stringHeaders.size() > 0) {
-            httpDataSourceFactory.setDefaultRequestProperties(stringHeaders);
-        }
-        return new DefaultDataSource.Factory(context, httpDataSourceFactory);
-    }
-
-    private void load(final MediaSource mediaSource, final long initialPosition, final Integer initialIndex, final Result result) {
+    private void load(final AudioSourceNode audioSource, final long initialPosition, final Integer initialIndex, final Result result) {
         this.initialPos = initialPosition;
         this.initialIndex = initialIndex;
         currentIndex = initialIndex != null ? initialIndex : 0;
@@ -685,35 +1194,226 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
                 break;
         }
         errorCount = 0;
+        cancelRetry();
         prepareResult = result;
+        metrics.onLoadStarted();
         updatePosition();
         processingState = ProcessingState.loading;
         enqueuePlaybackEvent();
-        this.mediaSource = mediaSource;
+        this.audioSource = audioSource;
+        playlistVersion = 0;
+        playlistInvalid = false;
         // TODO: pass in initial position here.
-        player.setMediaSource(mediaSource);
+        player.setMediaSources(audioSource.getMediaSources());
+        applyShuffleOrder();
         player.prepare();
     }
 
-    private void ensurePlayerInitialized() {
-        if (player == null) {
-            ExoPlayer.Builder builder = new ExoPlayer.Builder(context);
-            if (loadControl != null) {
-                builder.setLoadControl(loadControl);
-            }
-            if (livePlaybackSpeedControl != null) {
-                builder.setLivePlaybackSpeedControl(livePlaybackSpeedControl);
+    // Starts getting the player ready ahead of the first method call.
+    // Returns whether a pooled player is available, in which case it is
+    // handed over on the playback looper almost immediately. Otherwise a new
+    // ExoPlayer is built on the shared init executor, so that the cost stays
+    // off both the first call and the playback looper, which by default is
+    // the main thread. The player is bound to the playback looper by
+    // setLooper and is only used there once handed over.
+    boolean initializeEagerly() {
+        boolean warm = playerPoolKey != null && playerPool.contains(playerPoolKey);
+        if (!warm) {
+            eagerPlayer = new FutureTask<ExoPlayer>(() -> {
+                if (!eagerBuildClaimed.compareAndSet(false, true)) return null;
+                long startTime = SystemClock.elapsedRealtime();
+                ExoPlayer exoPlayer = buildPlayer();
+                eagerBuildTimeMs = SystemClock.elapsedRealtime() - startTime;
+                return exoPlayer;
+            }) {
+                @Override
+                protected void done() {
+                    handler.post(AudioPlayer.this::onEagerPlayerBuilt);
+                }
+            };
+            try {
+                playbackThreads.getInitExecutor().execute(eagerPlayer);
+            } catch (RejectedExecutionException e) {
+                // Too many players are being built, so this one is built on
+                // its first call.
+                eagerPlayer = null;
             }
-            if (offloadSchedulingEnabled) {
-//                builder.setRenderersFactory(new DefaultRenderersFactory(context).setEnableAudioOffload(true));
-                builder.setRenderersFactory(new DefaultRenderersFactory(context).setEnableAudioFloatOutput(true));
+        } else {
+            handler.post(() -> {
+                if (player == null && !firstCallHandled) {
+                    ensurePlayerInitialized();
+                }
+            });
+        }
+        return warm;
+    }
+
+    private void onEagerPlayerBuilt() {
+        // Unless a method call or dispose already took it.
+        if (eagerPlayer != null) {
+            ensurePlayerInitialized();
+        }
+    }
+
+    // Returns the eagerly built player, waiting for the rest of the build
+    // if necessary, or null if the build failed or hasn't started. A build
+    // that hasn't started is abandoned rather than waited for behind other
+    // players' builds.
+    private ExoPlayer takeEagerPlayer() {
+        FutureTask<ExoPlayer> task = eagerPlayer;
+        eagerPlayer = null;
+        if (eagerBuildClaimed.compareAndSet(false, true)) return null;
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to build player " + playerId + " eagerly: " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private boolean hasAudioProcessors() {
+        return softwareEqualizer != null || loudnessNormalizer != null || fadeProcessor != null || visualizerTap != null;
+    }
+
+    private AudioProcessor[] buildAudioProcessors() {
+        List<AudioProcessor> audioProcessors = new ArrayList<>();
+        // Normalized before equalization so that band gains are heard as
+        // set.
+        if (loudnessNormalizer != null) {
+            audioProcessors.add(loudnessNormalizer);
+        }
+        if (softwareEqualizer != null) {
+            audioProcessors.add(softwareEqualizer);
+        }
+        if (fadeProcessor != null) {
+            audioProcessors.add(fadeProcessor);
+        }
+        // Last, so that it shows what is heard.
+        if (visualizerTap != null) {
+            audioProcessors.add(visualizerTap);
+        }
+        return audioProcessors.toArray(new AudioProcessor[0]);
+    }
+
+    // Builds a new ExoPlayer for this player's configuration. May be called
+    // off the playback looper, so it only reads state fixed at construction.
+    private static LoadControl buildLoadControl(Map<?, ?> json) {
+        DefaultLoadControl.Builder builder = new DefaultLoadControl.Builder()
+                .setBufferDurationsMs(
+                        (int) ((getLong(json.get("minBufferDuration"))) / 1000),
+                        (int) ((getLong(json.get("maxBufferDuration"))) / 1000),
+                        (int) ((getLong(json.get("bufferForPlaybackDuration"))) / 1000),
+                        (int) ((getLong(json.get("bufferForPlaybackAfterRebufferDuration"))) / 1000)
+                )
+                .setPrioritizeTimeOverSizeThresholds((Boolean) json.get("prioritizeTimeOverSizeThresholds"))
+                .setBackBuffer((int) ((getLong(json.get("backBufferDuration"))) / 1000), false);
+        if (json.get("targetBufferBytes") != null) {
+            builder.setTargetBufferBytes((Integer) json.get("targetBufferBytes"));
+        }
+        return builder.build();
+    }
+
+    private static LivePlaybackSpeedControl buildLivePlaybackSpeedControl(Map<?, ?> json) {
+        return new DefaultLivePlaybackSpeedControl.Builder()
+                .setFallbackMinPlaybackSpeed((float) ((double) ((Double) json.get("fallbackMinPlaybackSpeed"))))
+                .setFallbackMaxPlaybackSpeed((float) ((double) ((Double) json.get("fallbackMaxPlaybackSpeed"))))
+                .setMinUpdateIntervalMs(((getLong(json.get("minUpdateInterval"))) / 1000))
+                .setProportionalControlFactor((float) ((double) ((Double) json.get("proportionalControlFactor"))))
+                .setMaxLiveOffsetErrorMsForUnitSpeed(((getLong(json.get("maxLiveOffsetErrorForUnitSpeed"))) / 1000))
+                .setTargetLiveOffsetIncrementOnRebufferMs(((getLong(json.get("targetLiveOffsetIncrementOnRebuffer"))) / 1000))
+                .setMinPossibleLiveOffsetSmoothingFactor((float) ((double) ((Double) json.get("minPossibleLiveOffsetSmoothingFactor"))))
+                .build();
+    }
+
+    private ExoPlayer buildPlayer() {
+        return buildPlayer(loadControl, livePlaybackSpeedControl);
+    }
+
+    // Builds a spare player for the pool with the same configuration as
+    // this one. Load and live speed controls hold the state of the player
+    // using them, so the spare gets its own.
+    private ExoPlayer buildSparePlayer() {
+        return buildPlayer(
+                loadControlMap != null ? buildLoadControl(loadControlMap) : null,
+                livePlaybackSpeedControlMap != null ? buildLivePlaybackSpeedControl(livePlaybackSpeedControlMap) : null);
+    }
+
+    private ExoPlayer buildPlayer(LoadControl loadControl, LivePlaybackSpeedControl livePlaybackSpeedControl) {
+        ExoPlayer.Builder builder = new ExoPlayer.Builder(context)
+                .setLooper(handler.getLooper())
+                .setBandwidthMeter(bandwidthManager.getBandwidthMeter());
+        if (loadControl != null) {
+            builder.setLoadControl(loadControl);
+        }
+        if (livePlaybackSpeedControl != null) {
+            builder.setLivePlaybackSpeedControl(livePlaybackSpeedControl);
+        }
+        if (hasAudioProcessors()) {
+            builder.setRenderersFactory(new ProcessingRenderersFactory(context, buildAudioProcessors()));
+        }
+        return builder.build();
+    }
+
+    private void ensurePlayerInitialized() {
+        if (playerListening) return;
+        long startTime = SystemClock.elapsedRealtime();
+        boolean pooled = false;
+        boolean eager = false;
+        if (player == null && eagerPlayer != null) {
+            player = takeEagerPlayer();
+            eager = player != null;
+        }
+        if (player == null && playerPoolKey != null) {
+            player = playerPool.acquire(playerPoolKey);
+            pooled = player != null;
+            // Players are being created and disposed in turn, so the next
+            // one is likely to overlap this one and find the pool empty.
+            if (pooled && !playbackThreads.isDedicated(handler.getLooper())) {
+                playerPool.prewarm(playerPoolKey, handler, this::buildSparePlayer, playbackThreads.getInitExecutor());
             }
-            player = builder.build();
-//            player.experimentalSetOffloadSchedulingEnabled(offloadSchedulingEnabled);
-//            player.experimentalSetOffloadSchedulingEnabled(offloadSchedulingEnabled);
-            setAudioSessionId(player.getAudioSessionId());
-            player.addListener(this);
         }
+        if (player == null) {
+            player = buildPlayer();
+        }
+        if (offloadSchedulingEnabled) {
+            // Offload is only used when the device supports it for the
+            // current format, otherwise ExoPlayer decodes as usual. Devices
+            // that can't offload gaplessly decode as usual too, so that
+            // playlists keep their gapless transitions.
+            player.setTrackSelectionParameters(player.getTrackSelectionParameters()
+                    .buildUpon()
+                    .setAudioOffloadPreferences(new AudioOffloadPreferences.Builder()
+                            .setAudioOffloadMode(AudioOffloadPreferences.AUDIO_OFFLOAD_MODE_ENABLED)
+                            .setIsGaplessSupportRequired(true)
+                            .setIsSpeedChangeSupportRequired(false)
+                            .build())
+                    .build());
+            player.addAudioOffloadListener(this);
+        }
+        applyMaxAudioBitrate();
+        playerListening = true;
+        setAudioSessionId(player.getAudioSessionId());
+        player.addListener(this);
+        if (metrics.isEnabled()) {
+            player.addAnalyticsListener(metrics);
+        }
+        if (loudnessNormalizer != null) {
+            player.addAnalyticsListener(loudnessNormalizer);
+        }
+        if (fadeProcessor != null) {
+            player.addAnalyticsListener(fadeProcessor);
+        }
+        if (visualizerTap != null) {
+            visualizerTap.start();
+        }
+        long initTimeMs = SystemClock.elapsedRealtime() - startTime;
+        long buildTimeMs = eager ? eagerBuildTimeMs : initTimeMs;
+        metrics.onPlayerInitialized(buildTimeMs, initTimeMs, eager, pooled);
+        Log.d(TAG, "Player " + playerId + " initialized in " + initTimeMs + "ms"
+                + (pooled ? " from pool" : eager ? " after building in the background for " + buildTimeMs + "ms" : ""));
     }
 
     private void setAudioAttributes(int contentType, int flags, int usage) {
@@ -733,6 +1433,10 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     }
 
     private void audioEffectSetEnabled(String type, boolean enabled) {
+        if (softwareEqualizer != null && "AndroidEqualizer".equals(type)) {
+            softwareEqualizer.setEnabled(enabled);
+            return;
+        }
         audioEffectsMap.get(type).setEnabled(enabled);
     }
 
@@ -742,6 +1446,9 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     }
 
     private Map<String, Object> equalizerAudioEffectGetParameters() {
+        if (softwareEqualizer != null) {
+            return softwareEqualizer.getParameters();
+        }
         Equalizer equalizer = (Equalizer) audioEffectsMap.get("AndroidEqualizer");
         ArrayList<Object> rawBands = new ArrayList<>();
         for (short i = 0; i < equalizer.getNumberOfBands(); i++) {
@@ -763,30 +1470,38 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     }
 
     private void equalizerBandSetGain(int bandIndex, double gain) {
+        if (softwareEqualizer != null) {
+            softwareEqualizer.setBandGain(bandIndex, (float) gain);
+            return;
+        }
         ((Equalizer) audioEffectsMap.get("AndroidEqualizer")).setBandLevel((short) bandIndex, (short) (Math.round(gain * 1000.0)));
     }
 
-    /// Creates an event based on the current state.
-    private Map<String, Object> createPlaybackEvent() {
-        final Map<String, Object> event = new HashMap<String, Object>();
-        Long duration = getDuration() == C.TIME_UNSET ? null : (1000 * getDuration());
+    // Updates the reusable event snapshot from the current state.
+    private void updatePlaybackEvent() {
+        long duration = getDuration();
         bufferedPosition = player != null ? player.getBufferedPosition() : 0L;
-        event.put("processingState", processingState.ordinal());
-        event.put("updatePosition", 1000 * updatePosition);
-        event.put("updateTime", updateTime);
-        event.put("bufferedPosition", 1000 * Math.max(updatePosition, bufferedPosition));
-        event.put("icyMetadata", collectIcyMetadata());
-        event.put("duration", duration);
-        event.put("currentIndex", currentIndex);
-        event.put("androidAudioSessionId", audioSessionId);
-        return event;
+        playbackEvent.processingState = processingState.ordinal();
+        playbackEvent.updatePosition = 1000 * updatePosition;
+        playbackEvent.updateTime = updateTime;
+        playbackEvent.updateElapsedRealtime = updateElapsedRealtime;
+        playbackEvent.speed = player != null && player.isPlaying() ? player.getPlaybackParameters().speed : 0f;
+        playbackEvent.bufferedPosition = 1000 * Math.max(updatePosition, bufferedPosition);
+        playbackEvent.setIcyMetadata(icyInfo, icyHeaders);
+        playbackEvent.hasDuration = duration != C.TIME_UNSET;
+        playbackEvent.duration = 1000 * duration;
+        playbackEvent.hasCurrentIndex = currentIndex != null;
+        playbackEvent.currentIndex = currentIndex != null ? currentIndex : 0;
+        playbackEvent.hasAudioSessionId = audioSessionId != null;
+        playbackEvent.audioSessionId = audioSessionId != null ? audioSessionId : 0;
+        playbackEvent.offloadActive = offloadedPlayback;
     }
 
     // Broadcast the pending playback event if it was set.
     private void broadcastPendingPlaybackEvent() {
-        if (pendingPlaybackEvent != null) {
-            eventChannel.success(pendingPlaybackEvent);
-            pendingPlaybackEvent = null;
+        if (playbackEventPending) {
+            eventCoalescer.sendNow(playbackEvent);
+            playbackEventPending = false;
         }
     }
 
@@ -801,35 +1516,17 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     // broadcastPendingPlaybackEvent, only the last event is
     // broadcast.
     private void enqueuePlaybackEvent() {
-        final Map<String, Object> event = new HashMap<String, Object>();
-        pendingPlaybackEvent = createPlaybackEvent();
+        updatePlaybackEvent();
+        playbackEventPending = true;
     }
 
-    // Broadcasts a new event immediately.
+    // Broadcasts a new event from a player callback. Bursts of events
+    // are merged by the event coalescer, but state transitions are sent
+    // immediately.
     private void broadcastImmediatePlaybackEvent() {
         enqueuePlaybackEvent();
-        broadcastPendingPlaybackEvent();
-    }
-
-    private Map<String, Object> collectIcyMetadata() {
-        final Map<String, Object> icyData = new HashMap<>();
-        if (icyInfo != null) {
-            final Map<String, String> info = new HashMap<>();
-            info.put("title", icyInfo.title);
-            info.put("url", icyInfo.url);
-            icyData.put("info", info);
-        }
-        if (icyHeaders != null) {
-            final Map<String, Object> headers = new HashMap<>();
-            headers.put("bitrate", icyHeaders.bitrate);
-            headers.put("genre", icyHeaders.genre);
-            headers.put("name", icyHeaders.name);
-            headers.put("metadataInterval", icyHeaders.metadataInterval);
-            headers.put("url", icyHeaders.url);
-            headers.put("isPublic", icyHeaders.isPublic);
-            icyData.put("headers", headers);
-        }
-        return icyData;
+        eventCoalescer.send(playbackEvent);
+        playbackEventPending = false;
     }
 
     private long getCurrentPosition() {
@@ -864,6 +1561,8 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
             prepareResult = null;
         }
 
+        // Keep events and errors in order.
+        eventCoalescer.flush();
         eventChannel.error(errorCode, errorMsg, details);
     }
 
@@ -898,6 +1597,49 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
         player.setVolume(volume);
     }
 
+    // Duration is in microseconds.
+    public void fade(final double volume, final Long duration, final String curve) {
+        if (fadeProcessor == null) {
+            throw new IllegalStateException("Fades are not enabled for this player");
+        }
+        fadeProcessor.fade((float) volume, duration != null ? duration : 0, FadeProcessor.parseCurve(curve));
+    }
+
+    public void setTransition(final Map<?, ?> json) {
+        if (fadeProcessor == null) {
+            throw new IllegalStateException("Fades are not enabled for this player");
+        }
+        fadeProcessor.setTransition(json);
+    }
+
+    public void setPreferredPeakBitRate(final Double bitRate) {
+        // 0 means no preference.
+        preferredPeakBitRate = bitRate != null && bitRate > 0 ? (int) Math.round(bitRate) : null;
+        applyMaxAudioBitrate();
+    }
+
+    private void onMeteredChanged(boolean metered) {
+        handler.post(this::applyMaxAudioBitrate);
+    }
+
+    // Limits adaptive track selection to the lower of the preferred peak
+    // bitrate and, on a metered network, the metered network cap.
+    private void applyMaxAudioBitrate() {
+        if (player == null) return;
+        int maxBitRate = Integer.MAX_VALUE;
+        if (preferredPeakBitRate != null) {
+            maxBitRate = preferredPeakBitRate;
+        }
+        if (meteredMaxBitRate != null && bandwidthManager.isMetered()) {
+            maxBitRate = Math.min(maxBitRate, meteredMaxBitRate);
+        }
+        if (player.getTrackSelectionParameters().maxAudioBitrate == maxBitRate) return;
+        player.setTrackSelectionParameters(player.getTrackSelectionParameters()
+                .buildUpon()
+                .setMaxAudioBitrate(maxBitRate)
+                .build());
+    }
+
     public void setSpeed(final float speed) {
         PlaybackParameters params = player.getPlaybackParameters();
         if (params.speed == speed) return;
@@ -923,6 +1665,9 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
     }
 
     public void setShuffleModeEnabled(final boolean enabled) {
+        if (enabled && shuffleOrderStale && audioSource != null) {
+            rebuildShuffleOrder();
+        }
         player.setShuffleModeEnabled(enabled);
     }
 
@@ -934,6 +1679,7 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
         abortSeek();
         seekPos = position;
         seekResult = result;
+        metrics.onSeekStarted();
         try {
             int windowIndex = index != null ? index : player.getCurrentMediaItemIndex();
             player.seekTo(windowIndex, position);
@@ -944,7 +1690,15 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
         }
     }
 
-    public void dispose() {
+    // Releases the player on its playback thread, then runs onDisposed on
+    // that thread. The release is always posted, even from the playback
+    // thread, so that when many players share the main looper each one is
+    // released in its own message and the UI thread can draw in between.
+    public void dispose(final Runnable onDisposed) {
+        handler.post(() -> release(onDisposed));
+    }
+
+    private void release(final Runnable onDisposed) {
         if (processingState == ProcessingState.loading) {
             abortExistingConnection();
         }
@@ -952,17 +1706,56 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
             playResult.success(new HashMap<String, Object>());
             playResult = null;
         }
+        if (eagerPlayer != null) {
+            ExoPlayer eagerlyBuiltPlayer = takeEagerPlayer();
+            if (eagerlyBuiltPlayer != null) {
+                eagerlyBuiltPlayer.release();
+            }
+        }
+        prefetcher.cancel();
+        waveformExtractor.cancelAll();
+        cancelRetry();
+        metrics.release();
+        bandwidthManager.removeMeteredListener(meteredListener);
+        context.unregisterReceiver(timeChangedReceiver);
         mediaSources.clear();
-        mediaSource = null;
+        audioSourceNodes.clear();
+        audioSource = null;
         clearAudioEffects();
         if (player != null) {
-            player.release();
+            player.removeListener(this);
+            player.removeAnalyticsListener(metrics);
+            if (loudnessNormalizer != null) {
+                player.removeAnalyticsListener(loudnessNormalizer);
+                loudnessNormalizer.storeCompletedMeasurement();
+            }
+            if (fadeProcessor != null) {
+                player.removeAnalyticsListener(fadeProcessor);
+            }
+            if (visualizerTap != null) {
+                visualizerTap.stop();
+            }
+            player.removeAudioOffloadListener(this);
+            offloadedPlayback = false;
+            playerListening = false;
+            // Players on dedicated threads can't be reused since the thread
+            // stops with this player.
+            if (playerPoolKey == null || playbackThreads.isDedicated(handler.getLooper())) {
+                player.release();
+            } else {
+                playerPool.offer(playerPoolKey, player);
+            }
             player = null;
             processingState = ProcessingState.none;
             broadcastImmediatePlaybackEvent();
         }
+        eventCoalescer.flush();
+        // Calls still in flight are rejected by onMethodCall.
+        MainThreadResult.runOnMainThread(() -> methodChannel.setMethodCallHandler(null));
         eventChannel.endOfStream();
         dataEventChannel.endOfStream();
+        playbackThreads.onPlayerReleased(handler.getLooper());
+        onDisposed.run();
     }
 
     private void abortSeek() {
@@ -1015,6 +1808,15 @@ public class AudioPlayer implements MethodCallHandler, Player.Listener, Metadata
         return map2;
     }
 
+    static class PlaylistVersionMismatchException extends RuntimeException {
+        final int version;
+
+        PlaylistVersionMismatchException(Integer baseVersion, int version) {
+            super("Playlist version " + baseVersion + " does not match " + version);
+            this.version = version;
+        }
+    }
+
     enum ProcessingState {
         none,
         loading,
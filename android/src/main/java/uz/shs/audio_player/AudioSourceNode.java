@@ -0,0 +1,286 @@
+package uz.shs.audio_player;
+
+import androidx.media3.exoplayer.source.MediaSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the tree of audio sources sent from Dart.
+ *
+ * ExoPlayer only knows a flat playlist, so each node tracks how many
+ * playlist items it expands to. This lets edits to a concatenating source
+ * be translated into incremental add/remove/move calls on the player
+ * instead of rebuilding the whole timeline.
+ */
+abstract class AudioSourceNode {
+    final String id;
+    AudioSourceNode parent;
+    // The number of playlist items this node expands to.
+    int size;
+    // This node's index among the children of a concatenating parent. Only
+    // kept up to date for the children that parent has validated.
+    int index;
+
+    AudioSourceNode(String id) {
+        this.id = id;
+    }
+
+    abstract void collectMediaSources(List<MediaSource> out);
+
+    // Writes the playlist indices of this node in shuffle order into
+    // order, starting at position. Returns the next free position.
+    abstract int collectShuffleOrder(int offset, int[] order, int position);
+
+    // Adds the offsets of child within this node to out, given that this
+    // node starts at offset.
+    abstract void collectChildOffsets(AudioSourceNode child, int offset, List<Integer> out);
+
+    abstract void collectChildren(List<AudioSourceNode> out);
+
+    List<MediaSource> getMediaSources() {
+        List<MediaSource> mediaSources = new ArrayList<>(size);
+        collectMediaSources(mediaSources);
+        return mediaSources;
+    }
+
+    int[] buildShuffleOrder() {
+        int[] order = new int[size];
+        collectShuffleOrder(0, order, 0);
+        return order;
+    }
+
+    // Returns every playlist index at which this node starts, in ascending
+    // order. There is more than one if a looping ancestor repeats it.
+    List<Integer> getOffsets() {
+        if (parent == null) return Collections.singletonList(0);
+        List<Integer> offsets = new ArrayList<>();
+        for (int parentOffset : parent.getOffsets()) {
+            parent.collectChildOffsets(this, parentOffset, offsets);
+        }
+        return offsets;
+    }
+
+    void adjustSize(int delta) {
+        size += delta;
+        if (parent != null) parent.onChildSizeChanged(this, delta);
+    }
+
+    void onChildSizeChanged(AudioSourceNode child, int delta) {
+        adjustSize(delta);
+    }
+
+    static class Leaf extends AudioSourceNode {
+        final MediaSource mediaSource;
+
+        Leaf(String id, MediaSource mediaSource) {
+            super(id);
+            this.mediaSource = mediaSource;
+            size = 1;
+        }
+
+        @Override
+        void collectMediaSources(List<MediaSource> out) {
+            out.add(mediaSource);
+        }
+
+        @Override
+        int collectShuffleOrder(int offset, int[] order, int position) {
+            order[position] = offset;
+            return position + 1;
+        }
+
+        @Override
+        void collectChildOffsets(AudioSourceNode child, int offset, List<Integer> out) {
+        }
+
+        @Override
+        void collectChildren(List<AudioSourceNode> out) {
+        }
+    }
+
+    static class Concatenating extends AudioSourceNode {
+        private final List<AudioSourceNode> children = new ArrayList<>();
+        private int[] shuffleOrder;
+        // The playlist offsets of the children. The first validCount
+        // children have their offset here and their index set, and edits
+        // only invalidate from the edited index onwards, so an edit near the
+        // end doesn't walk every child before it.
+        private int[] childOffsets = new int[0];
+        private int validCount;
+
+        Concatenating(String id, List<AudioSourceNode> children, int[] shuffleOrder) {
+            super(id);
+            insert(0, children);
+            setShuffleOrder(shuffleOrder);
+        }
+
+        AudioSourceNode getChild(int index) {
+            return children.get(index);
+        }
+
+        int indexOf(AudioSourceNode child) {
+            if (child.parent != this) return -1;
+            // A child's index is only trusted where it was validated. A
+            // newly inserted child may carry a default or stale index that
+            // happens to fall in the validated prefix.
+            int i = child.index;
+            if (i < validCount && children.get(i) == child) return i;
+            // Every child below validCount is known, so it's past there.
+            for (i = validCount; children.get(i) != child; i++) {
+            }
+            validate(i + 1);
+            return i;
+        }
+
+        int[] getShuffleOrder() {
+            return shuffleOrder;
+        }
+
+        // The number of playlist items before the child at index.
+        int getChildOffset(int index) {
+            if (index == children.size()) return size;
+            validate(index + 1);
+            return childOffsets[index];
+        }
+
+        // Brings the offsets and indices of the first count children up to
+        // date.
+        private void validate(int count) {
+            if (count <= validCount) return;
+            if (childOffsets.length < count) {
+                childOffsets = Arrays.copyOf(childOffsets, Math.max(count, childOffsets.length * 2));
+            }
+            for (int i = validCount; i < count; i++) {
+                children.get(i).index = i;
+                childOffsets[i] = i == 0 ? 0 : childOffsets[i - 1] + children.get(i - 1).size;
+            }
+            validCount = count;
+        }
+
+        private void invalidateFrom(int index) {
+            validCount = Math.min(validCount, index);
+        }
+
+        void setShuffleOrder(int[] shuffleOrder) {
+            // Fall back to the natural order if Dart's order is out of date.
+            if (shuffleOrder == null || shuffleOrder.length != children.size()) {
+                shuffleOrder = new int[children.size()];
+                for (int i = 0; i < shuffleOrder.length; i++) {
+                    shuffleOrder[i] = i;
+                }
+            }
+            this.shuffleOrder = shuffleOrder;
+        }
+
+        void insert(int index, List<AudioSourceNode> nodes) {
+            int delta = 0;
+            for (AudioSourceNode node : nodes) {
+                node.parent = this;
+                delta += node.size;
+            }
+            children.addAll(index, nodes);
+            invalidateFrom(index);
+            adjustSize(delta);
+        }
+
+        List<AudioSourceNode> removeRange(int start, int end) {
+            List<AudioSourceNode> range = children.subList(start, end);
+            List<AudioSourceNode> removed = new ArrayList<>(range);
+            range.clear();
+            invalidateFrom(start);
+            int delta = 0;
+            for (AudioSourceNode node : removed) {
+                node.parent = null;
+                delta -= node.size;
+            }
+            adjustSize(delta);
+            return removed;
+        }
+
+        void move(int currentIndex, int newIndex) {
+            children.add(newIndex, children.remove(currentIndex));
+            invalidateFrom(Math.min(currentIndex, newIndex));
+        }
+
+        @Override
+        void onChildSizeChanged(AudioSourceNode child, int delta) {
+            // The child's own offset is unchanged, only those after it.
+            invalidateFrom(indexOf(child) + 1);
+            adjustSize(delta);
+        }
+
+        @Override
+        void collectMediaSources(List<MediaSource> out) {
+            for (AudioSourceNode child : children) {
+                child.collectMediaSources(out);
+            }
+        }
+
+        @Override
+        int collectShuffleOrder(int offset, int[] order, int position) {
+            validate(children.size());
+            for (int i : shuffleOrder) {
+                position = children.get(i).collectShuffleOrder(offset + childOffsets[i], order, position);
+            }
+            return position;
+        }
+
+        @Override
+        void collectChildOffsets(AudioSourceNode child, int offset, List<Integer> out) {
+            out.add(offset + getChildOffset(indexOf(child)));
+        }
+
+        @Override
+        void collectChildren(List<AudioSourceNode> out) {
+            out.addAll(children);
+        }
+    }
+
+    static class Looping extends AudioSourceNode {
+        final AudioSourceNode child;
+        final int count;
+
+        Looping(String id, AudioSourceNode child, int count) {
+            super(id);
+            this.child = child;
+            this.count = count;
+            child.parent = this;
+            size = child.size * count;
+        }
+
+        @Override
+        void onChildSizeChanged(AudioSourceNode child, int delta) {
+            adjustSize(delta * count);
+        }
+
+        @Override
+        void collectMediaSources(List<MediaSource> out) {
+            for (int i = 0; i < count; i++) {
+                child.collectMediaSources(out);
+            }
+        }
+
+        @Override
+        int collectShuffleOrder(int offset, int[] order, int position) {
+            for (int i = 0; i < count; i++) {
+                position = child.collectShuffleOrder(offset + i * child.size, order, position);
+            }
+            return position;
+        }
+
+        @Override
+        void collectChildOffsets(AudioSourceNode child, int offset, List<Integer> out) {
+            for (int i = 0; i < count; i++) {
+                out.add(offset + i * child.size);
+            }
+        }
+
+        @Override
+        void collectChildren(List<AudioSourceNode> out) {
+            out.add(child);
+        }
+    }
+}
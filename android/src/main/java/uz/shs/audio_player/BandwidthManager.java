@@ -0,0 +1,205 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.media3.common.C;
+import androidx.media3.common.util.NetworkTypeObserver;
+import androidx.media3.exoplayer.upstream.BandwidthMeter;
+import androidx.media3.exoplayer.upstream.DefaultBandwidthMeter;
+
+import io.flutter.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The bandwidth meter and network conditions shared by every player created
+ * by {@link MainMethodCallHandler}.
+ *
+ * All players share one {@link DefaultBandwidthMeter} so that an estimate
+ * learned by one player is used by the next. The estimate for each network
+ * type is also persisted, and used as the initial estimate after an app
+ * restart, so adaptive HLS/DASH playback starts at a suitable bitrate
+ * instead of ramping up from the meter's default. The persisted estimates
+ * are read on a background thread as soon as this is created. Since a
+ * meter's initial estimates are fixed when it's built, building the meter
+ * waits up to {@link #INITIAL_ESTIMATES_TIMEOUT_MS} for them, and only
+ * starts from its defaults if the read takes longer. Players that cap their
+ * bitrate on metered networks register a {@link MeteredListener}.
+ */
+public class BandwidthManager {
+    static final String PREFERENCES_NAME = "audio_player_bandwidth";
+    // Minimum time between writes of the estimate to disk.
+    static final long PERSIST_INTERVAL_MS = 10 * 1000;
+    // Maximum time building the meter waits for the persisted estimates.
+    static final long INITIAL_ESTIMATES_TIMEOUT_MS = 200;
+    private static final int[] NETWORK_TYPES = {
+            C.NETWORK_TYPE_WIFI, C.NETWORK_TYPE_ETHERNET, C.NETWORK_TYPE_2G, C.NETWORK_TYPE_3G,
+            C.NETWORK_TYPE_4G, C.NETWORK_TYPE_5G_SA, C.NETWORK_TYPE_5G_NSA};
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<MeteredListener> meteredListeners = new CopyOnWriteArrayList<>();
+    // The persisted estimate for each of NETWORK_TYPES, or 0.
+    private final FutureTask<long[]> initialEstimates;
+    private DefaultBandwidthMeter bandwidthMeter;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private volatile boolean metered;
+    private long lastPersistTime;
+
+    public BandwidthManager(Context applicationContext) {
+        this.context = applicationContext;
+        // Reading preferences hits the disk, so it mustn't hold up the
+        // main thread.
+        initialEstimates = new FutureTask<>(() -> {
+            SharedPreferences preferences = getPreferences();
+            long[] estimates = new long[NETWORK_TYPES.length];
+            for (int i = 0; i < NETWORK_TYPES.length; i++) {
+                estimates[i] = preferences.getLong(key(NETWORK_TYPES[i]), 0);
+            }
+            return estimates;
+        });
+        Thread thread = new Thread(initialEstimates, "AudioPlayer:bandwidth");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized BandwidthMeter getBandwidthMeter() {
+        if (bandwidthMeter == null) {
+            DefaultBandwidthMeter.Builder builder = new DefaultBandwidthMeter.Builder(context);
+            long[] estimates = getInitialEstimates();
+            for (int i = 0; estimates != null && i < NETWORK_TYPES.length; i++) {
+                if (estimates[i] > 0) {
+                    builder.setInitialBitrateEstimate(NETWORK_TYPES[i], estimates[i]);
+                }
+            }
+            bandwidthMeter = builder.build();
+            bandwidthMeter.addEventListener(mainHandler, (elapsedMs, bytesTransferred, bitrateEstimate) -> persistEstimate(bitrateEstimate));
+        }
+        return bandwidthMeter;
+    }
+
+    // Returns the persisted estimates, waiting briefly for them to be read,
+    // or null if they couldn't be read in time.
+    private long[] getInitialEstimates() {
+        try {
+            return initialEstimates.get(INITIAL_ESTIMATES_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Log.w(AudioPlayer.TAG, "Failed to read bandwidth estimates: " + e.getCause());
+            return null;
+        } catch (TimeoutException e) {
+            Log.w(AudioPlayer.TAG, "Timed out reading bandwidth estimates");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    boolean isMetered() {
+        return metered;
+    }
+
+    // Listeners are called on the main thread.
+    synchronized void addMeteredListener(MeteredListener listener) {
+        meteredListeners.add(listener);
+        if (networkCallback == null) {
+            startMonitoringNetwork();
+        }
+    }
+
+    void removeMeteredListener(MeteredListener listener) {
+        meteredListeners.remove(listener);
+    }
+
+    synchronized void release() {
+        if (networkCallback != null) {
+            getConnectivityManager().unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        meteredListeners.clear();
+        // The meter is kept since estimates stay valid between players.
+    }
+
+    private void startMonitoringNetwork() {
+        final ConnectivityManager connectivityManager = getConnectivityManager();
+        metered = connectivityManager.isActiveNetworkMetered();
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                mainHandler.post(() -> updateMetered());
+            }
+
+            // Catches the network becoming metered or unmetered without
+            // being replaced, such as when a hotspot is detected.
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                mainHandler.post(() -> updateMetered());
+            }
+
+            @Override
+            public void onLost(Network network) {
+                mainHandler.post(() -> updateMetered());
+            }
+        };
+        try {
+            if (Build.VERSION.SDK_INT >= 24) {
+                // Only changes to the network that traffic actually uses.
+                connectivityManager.registerDefaultNetworkCallback(networkCallback);
+            } else {
+                connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(), networkCallback);
+            }
+        } catch (SecurityException e) {
+            Log.w(AudioPlayer.TAG, "Can't monitor metered networks: " + e.getMessage());
+        }
+    }
+
+    private void updateMetered() {
+        boolean metered = getConnectivityManager().isActiveNetworkMetered();
+        if (metered == this.metered) return;
+        this.metered = metered;
+        for (MeteredListener listener : meteredListeners) {
+            listener.onMeteredChanged(metered);
+        }
+    }
+
+    private void persistEstimate(long bitrateEstimate) {
+        long now = SystemClock.elapsedRealtime();
+        if (lastPersistTime != 0 && now - lastPersistTime < PERSIST_INTERVAL_MS) return;
+        int networkType = NetworkTypeObserver.getInstance(context).getNetworkType();
+        if (networkType == C.NETWORK_TYPE_UNKNOWN || networkType == C.NETWORK_TYPE_OFFLINE) return;
+        lastPersistTime = now;
+        getPreferences().edit().putLong(key(networkType), bitrateEstimate).apply();
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private ConnectivityManager getConnectivityManager() {
+        return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    private static String key(int networkType) {
+        return "estimate_" + networkType;
+    }
+
+    interface MeteredListener {
+        void onMeteredChanged(boolean metered);
+    }
+}
@@ -1,18 +1,26 @@
 package uz.shs.audio_player;
 
+import java.nio.ByteBuffer;
+
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.EventChannel.EventSink;
 
 public class BetterEventChannel implements EventSink {
+    private final BinaryMessenger messenger;
+    private final String name;
     private EventSink eventSink;
+    private Encoder encoder;
 
 	public BetterEventChannel(final BinaryMessenger messenger, final String id) {
+        this.messenger = messenger;
+        this.name = id;
         EventChannel eventChannel = new EventChannel(messenger, id);
         eventChannel.setStreamHandler(new EventChannel.StreamHandler() {
             @Override
             public void onListen(final Object arguments, final EventSink eventSink) {
                 BetterEventChannel.this.eventSink = eventSink;
+                if (encoder != null) encoder.reset();
             }
 
             @Override
@@ -22,18 +30,52 @@ public class BetterEventChannel implements EventSink {
         });
 	}
 
+    // Sets an encoder that converts events into a compact wire format
+    // before they are sent, or null to send events as they are through the
+    // standard codec.
+    public void setEncoder(Encoder encoder) {
+        this.encoder = encoder;
+    }
+
+    // Events may come from a playback thread but Flutter requires them to
+    // be sent on the platform thread.
+
     @Override
-    public void success(Object event) {
-        if (eventSink != null) eventSink.success(event);
+    public void success(final Object event) {
+        MainThreadResult.runOnMainThread(() -> {
+            if (encoder != null) {
+                // Always encoded so that the encoder can reuse the event.
+                ByteBuffer message = encoder.encode(event);
+                if (eventSink != null) messenger.send(name, message);
+            } else if (eventSink != null) {
+                eventSink.success(event);
+            }
+        });
     }
 
     @Override
-    public void error(String errorCode, String errorMessage, Object errorDetails) {
-        if (eventSink != null) eventSink.error(errorCode, errorMessage, errorDetails);
+    public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+        MainThreadResult.runOnMainThread(() -> {
+            if (eventSink != null) eventSink.error(errorCode, errorMessage, errorDetails);
+        });
     }
 
     @Override
     public void endOfStream() {
-        if (eventSink != null) eventSink.endOfStream();
+        MainThreadResult.runOnMainThread(() -> {
+            if (eventSink != null) eventSink.endOfStream();
+        });
+    }
+
+    public interface Encoder {
+        // Encodes event as a complete event channel message, a success
+        // envelope around the encoded value, with the buffer's position at
+        // its end. Called on the platform thread. The buffer may be reused
+        // once the message has been sent.
+        ByteBuffer encode(Object event);
+
+        // Called when a new listener attaches so that any state the
+        // encoder elides as unchanged is sent again.
+        void reset();
     }
 }
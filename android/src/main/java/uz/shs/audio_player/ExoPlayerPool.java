@@ -0,0 +1,155 @@
+package uz.shs.audio_player;
+
+import android.os.Handler;
+
+import androidx.media3.common.AudioAttributes;
+import androidx.media3.common.PlaybackParameters;
+import androidx.media3.common.Player;
+import androidx.media3.common.TrackSelectionParameters.AudioOffloadPreferences;
+import androidx.media3.exoplayer.ExoPlayer;
+
+import io.flutter.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A bounded pool of idle, reset {@link ExoPlayer} instances.
+ *
+ * Building an ExoPlayer creates its renderers, codecs and audio session, so
+ * apps that create and dispose short-lived players (e.g. previews) borrow a
+ * previously released player with the same configuration instead. Idle
+ * players are released after {@link #IDLE_TIMEOUT_MS}, and the least
+ * recently returned player is evicted when the pool is full. Players are
+ * always released on their own application looper.
+ *
+ * A player borrowed from the pool suggests that players with its
+ * configuration are created repeatedly. A spare is then built in the
+ * background with {@link #prewarm}, so that a player created while the
+ * borrower is still alive also starts without building one.
+ */
+public class ExoPlayerPool {
+    static final int MAX_SIZE = 3;
+    static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private final List<Entry> entries = new ArrayList<>();
+    // Keys with a spare being built by prewarm.
+    private final List<Object> warmingKeys = new ArrayList<>();
+
+    // Returns an idle player built with the same key, or null.
+    synchronized ExoPlayer acquire(Object key) {
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.key.equals(key)) {
+                it.remove();
+                entry.handler.removeCallbacks(entry.evictor);
+                return entry.player;
+            }
+        }
+        return null;
+    }
+
+    synchronized boolean contains(Object key) {
+        for (Entry entry : entries) {
+            if (entry.key.equals(key)) return true;
+        }
+        return false;
+    }
+
+    // Resets player and keeps it for reuse. Must be called on the player's
+    // application looper.
+    synchronized void offer(Object key, ExoPlayer player) {
+        reset(player);
+        final Entry entry = new Entry(key, player);
+        entries.add(entry);
+        entry.handler.postDelayed(entry.evictor, IDLE_TIMEOUT_MS);
+        if (entries.size() > MAX_SIZE) {
+            evict(entries.get(0));
+        }
+    }
+
+    // Builds a spare player for key with builder on executor and adds it to
+    // the pool on handler, which must be its application looper. Does
+    // nothing if an idle player with key is available or already being
+    // built.
+    synchronized void prewarm(final Object key, final Handler handler, final Callable<ExoPlayer> builder, Executor executor) {
+        if (contains(key) || warmingKeys.contains(key)) return;
+        warmingKeys.add(key);
+        try {
+            executor.execute(() -> {
+                final ExoPlayer player;
+                try {
+                    player = builder.call();
+                } catch (Exception e) {
+                    Log.w(AudioPlayer.TAG, "Failed to prewarm player: " + e);
+                    onWarmed(key);
+                    return;
+                }
+                if (!handler.post(() -> {
+                    onWarmed(key);
+                    offer(key, player);
+                })) {
+                    // The looper has quit, so the player can't be used.
+                    onWarmed(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            warmingKeys.remove(key);
+        }
+    }
+
+    private synchronized void onWarmed(Object key) {
+        warmingKeys.remove(key);
+    }
+
+    synchronized void clear() {
+        while (!entries.isEmpty()) {
+            evict(entries.get(0));
+        }
+    }
+
+    private synchronized void evict(Entry entry) {
+        if (!entries.remove(entry)) return;
+        entry.handler.removeCallbacks(entry.evictor);
+        entry.handler.post(entry.player::release);
+    }
+
+    private static void reset(ExoPlayer player) {
+        player.stop();
+        player.clearMediaItems();
+        player.setPlayWhenReady(false);
+        player.setVolume(1.0f);
+        player.setPlaybackParameters(PlaybackParameters.DEFAULT);
+        player.setRepeatMode(Player.REPEAT_MODE_OFF);
+        player.setShuffleModeEnabled(false);
+        player.setSkipSilenceEnabled(false);
+        player.setAudioAttributes(AudioAttributes.DEFAULT, false);
+        player.setTrackSelectionParameters(player.getTrackSelectionParameters()
+                .buildUpon()
+                .setAudioOffloadPreferences(AudioOffloadPreferences.DEFAULT)
+                .setMaxAudioBitrate(Integer.MAX_VALUE)
+                .build());
+    }
+
+    private final class Entry {
+        final Object key;
+        final ExoPlayer player;
+        final Handler handler;
+        final Runnable evictor = new Runnable() {
+            @Override
+            public void run() {
+                evict(Entry.this);
+            }
+        };
+
+        Entry(Object key, ExoPlayer player) {
+            this.key = key;
+            this.player = player;
+            this.handler = new Handler(player.getApplicationLooper());
+        }
+    }
+}
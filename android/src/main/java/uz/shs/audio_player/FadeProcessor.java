@@ -0,0 +1,338 @@
+package uz.shs.audio_player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.common.audio.BaseAudioProcessor;
+import androidx.media3.exoplayer.DecoderReuseEvaluation;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Volume fades applied as a gain ramp inside ExoPlayer's audio sink,
+ * enabled with `androidFades` in the audio load configuration.
+ *
+ * Two kinds of fade are supported, each with a duration and a curve
+ * (`linear`, `equalPower` or `sCurve`):
+ *
+ * - A transition, set once with the `setTransition` method or the
+ *   `androidFades` configuration, which fades every item out over its last
+ *   `fadeOut` and in over its first `fadeIn`. Consecutive items therefore
+ *   cross over without any calls from Dart.
+ * - A one-off `fade` to a given volume, for fading in on play or out before
+ *   a pause. It multiplies the volume set with `setVolume`.
+ *
+ * Since this {@link AudioProcessor} sees audio ahead of the output, it
+ * follows each item's position itself: items are entered when the audio
+ * renderer reads their format, and seeks are reported through
+ * {@link AnalyticsListener}. An item entered ahead of time only takes over
+ * once the previous item's last frame has been processed, so the fades
+ * meet at the exact sample where one item ends and the next begins. Items
+ * of unknown duration, such as live streams, aren't faded out.
+ */
+public class FadeProcessor extends BaseAudioProcessor implements AnalyticsListener {
+    static final int CURVE_LINEAR = 0;
+    static final int CURVE_EQUAL_POWER = 1;
+    static final int CURVE_S_CURVE = 2;
+    // An item entered this close to the end of the current item waits for
+    // the current item to finish. Further away, the duration is assumed to
+    // be wrong and the item takes over immediately.
+    static final long MAX_DEFERRED_SWITCH_US = 250 * 1000;
+    // How long after a flush a seek may still be reported.
+    static final long SEEK_REPORT_WINDOW_US = 100 * 1000;
+
+    private final AtomicReference<Transition> transition;
+    private final AtomicReference<Fade> pendingFade = new AtomicReference<>();
+    private final AtomicReference<ItemPosition> pendingItem = new AtomicReference<>();
+    private final AtomicReference<ItemPosition> pendingSeek = new AtomicReference<>();
+    private final Timeline.Window window = new Timeline.Window();
+
+    // Audio thread state. Positions are in frames, -1 if unknown.
+    private int sampleRate;
+    private long itemFrame = -1;
+    private long itemEndFrame = -1;
+    private ItemPosition nextItem;
+    private boolean awaitingSeek;
+    private long framesSinceFlush;
+    private boolean drained;
+    private float volume = 1f;
+    private float fadeFrom = 1f;
+    private float fadeTo = 1f;
+    private int fadeCurve;
+    private long fadeFrames;
+    private long fadeProgress;
+
+    // Creates a processor from an `androidFades` configuration, which may
+    // contain a `fadeIn` and `fadeOut` as for `setTransition`.
+    public FadeProcessor(Map<?, ?> json) {
+        transition = new AtomicReference<>(Transition.fromJson(json));
+    }
+
+    // Sets the fades for every following transition. A fade is a map of
+    // `duration` in microseconds and `curve`.
+    void setTransition(Map<?, ?> json) {
+        transition.set(Transition.fromJson(json));
+    }
+
+    // Fades from the current fade volume to the given volume, starting with
+    // the next audio to be processed.
+    void fade(float volume, long durationUs, int curve) {
+        pendingFade.set(new Fade(Math.max(0f, volume), durationUs, curve));
+    }
+
+    static int parseCurve(String curve) {
+        if (curve == null) return CURVE_LINEAR;
+        switch (curve) {
+            case "equalPower":
+                return CURVE_EQUAL_POWER;
+            case "sCurve":
+                return CURVE_S_CURVE;
+            default:
+                return CURVE_LINEAR;
+        }
+    }
+
+    @Override
+    public void onAudioInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format, @Nullable DecoderReuseEvaluation decoderReuseEvaluation) {
+        if (eventTime.timeline.isEmpty()) return;
+        long durationUs = eventTime.timeline.getWindow(eventTime.windowIndex, window).durationUs;
+        pendingItem.set(new ItemPosition(eventTime.eventPlaybackPositionMs * 1000, durationUs));
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+        if (reason != Player.DISCONTINUITY_REASON_SEEK && reason != Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT) return;
+        if (eventTime.timeline.isEmpty()) return;
+        long durationUs = eventTime.timeline.getWindow(newPosition.mediaItemIndex, window).durationUs;
+        pendingSeek.set(new ItemPosition(newPosition.positionMs * 1000, durationUs));
+    }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        applyPendingChanges();
+        int remaining = inputBuffer.remaining();
+        if (remaining == 0) return;
+        ByteBuffer outputBuffer = replaceOutputBuffer(remaining);
+        int frameCount = remaining / inputAudioFormat.bytesPerFrame;
+        Transition transition = this.transition.get();
+        long fadeInFrames = toFrames(transition.fadeInUs);
+        long fadeOutFrames = toFrames(transition.fadeOutUs);
+        framesSinceFlush += frameCount;
+        if (!isActive(frameCount, fadeInFrames, fadeOutFrames)) {
+            if (itemFrame >= 0) itemFrame += frameCount;
+            outputBuffer.put(inputBuffer);
+            outputBuffer.flip();
+            return;
+        }
+        int channelCount = inputAudioFormat.channelCount;
+        boolean isFloat = inputAudioFormat.encoding == C.ENCODING_PCM_FLOAT;
+        ByteBuffer input = inputBuffer.order(ByteOrder.nativeOrder());
+        for (int frame = 0; frame < frameCount; frame++) {
+            if (fadeProgress < fadeFrames) {
+                fadeProgress++;
+                float t = (float) fadeProgress / fadeFrames;
+                volume = fadeTo >= fadeFrom
+                        ? fadeFrom + (fadeTo - fadeFrom) * shape(fadeCurve, t)
+                        : fadeTo + (fadeFrom - fadeTo) * shape(fadeCurve, 1 - t);
+            }
+            float gain = volume;
+            if (itemFrame >= 0) {
+                if (itemFrame < fadeInFrames) {
+                    gain *= shape(transition.fadeInCurve, (float) itemFrame / fadeInFrames);
+                }
+                if (itemEndFrame >= 0 && fadeOutFrames > 0 && itemEndFrame - itemFrame < fadeOutFrames) {
+                    gain *= shape(transition.fadeOutCurve, (float) Math.max(0, itemEndFrame - itemFrame) / fadeOutFrames);
+                }
+            }
+            for (int channel = 0; channel < channelCount; channel++) {
+                if (isFloat) {
+                    outputBuffer.putFloat(input.getFloat() * gain);
+                } else {
+                    outputBuffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(input.getShort() * gain))));
+                }
+            }
+            if (itemFrame >= 0) {
+                itemFrame++;
+                if (nextItem != null && itemFrame >= itemEndFrame) {
+                    enterItem(nextItem);
+                }
+            }
+        }
+        outputBuffer.flip();
+    }
+
+    @Override
+    protected void onQueueEndOfStream() {
+        // The sink drains before reconfiguring for the next item's format,
+        // so the current item has finished.
+        drained = true;
+        if (nextItem != null) {
+            enterItem(nextItem);
+        }
+    }
+
+    @Override
+    protected void onFlush() {
+        int newSampleRate = inputAudioFormat.sampleRate;
+        if (drained) {
+            // Reconfigured between items: the position carries on, though a
+            // seek made at the same time may still be reported.
+            if (sampleRate != 0 && newSampleRate != sampleRate) {
+                if (itemFrame >= 0) itemFrame = itemFrame * newSampleRate / sampleRate;
+                if (itemEndFrame >= 0) itemEndFrame = itemEndFrame * newSampleRate / sampleRate;
+            }
+        } else {
+            // A seek, reported separately.
+            itemFrame = -1;
+            itemEndFrame = -1;
+            nextItem = null;
+        }
+        sampleRate = newSampleRate;
+        drained = false;
+        awaitingSeek = true;
+        framesSinceFlush = 0;
+        // Fades in progress complete immediately.
+        fadeProgress = fadeFrames;
+        volume = fadeTo;
+    }
+
+    @Override
+    protected void onReset() {
+        sampleRate = 0;
+        itemFrame = -1;
+        itemEndFrame = -1;
+        nextItem = null;
+        awaitingSeek = false;
+        drained = false;
+        fadeProgress = fadeFrames;
+        volume = fadeTo;
+    }
+
+    private void applyPendingChanges() {
+        Fade fade = pendingFade.getAndSet(null);
+        if (fade != null) {
+            fadeFrom = volume;
+            fadeTo = fade.volume;
+            fadeCurve = fade.curve;
+            fadeFrames = toFrames(fade.durationUs);
+            fadeProgress = 0;
+            if (fadeFrames == 0) volume = fadeTo;
+        }
+        if (awaitingSeek) {
+            ItemPosition seek = pendingSeek.getAndSet(null);
+            if (seek != null) {
+                enterItem(seek);
+                // Audio since the flush was already from the new position.
+                if (itemFrame >= 0) itemFrame += framesSinceFlush;
+            } else if (framesSinceFlush >= toFrames(SEEK_REPORT_WINDOW_US)) {
+                awaitingSeek = false;
+            }
+        }
+        ItemPosition item = pendingItem.getAndSet(null);
+        if (item != null) {
+            if (itemFrame >= 0 && itemEndFrame >= 0 && itemFrame < itemEndFrame
+                    && itemEndFrame - itemFrame <= toFrames(MAX_DEFERRED_SWITCH_US)) {
+                nextItem = item;
+            } else {
+                enterItem(item);
+            }
+        }
+    }
+
+    private void enterItem(ItemPosition item) {
+        itemFrame = toFrames(item.positionUs);
+        itemEndFrame = item.durationUs == C.TIME_UNSET ? -1 : toFrames(item.durationUs);
+        nextItem = null;
+        awaitingSeek = false;
+    }
+
+    // Whether any gain other than unity applies within the next frameCount
+    // frames.
+    private boolean isActive(int frameCount, long fadeInFrames, long fadeOutFrames) {
+        if (volume != 1f || fadeProgress < fadeFrames) return true;
+        if (itemFrame < 0) return false;
+        if (itemFrame < fadeInFrames) return true;
+        if (itemEndFrame >= 0 && fadeOutFrames > 0 && itemEndFrame - (itemFrame + frameCount) < fadeOutFrames) return true;
+        return nextItem != null && itemFrame + frameCount >= itemEndFrame;
+    }
+
+    private long toFrames(long durationUs) {
+        return durationUs * inputAudioFormat.sampleRate / 1000000;
+    }
+
+    private static float shape(int curve, float t) {
+        t = Math.max(0f, Math.min(1f, t));
+        switch (curve) {
+            case CURVE_EQUAL_POWER:
+                return (float) Math.sin(t * Math.PI / 2);
+            case CURVE_S_CURVE:
+                return t * t * (3 - 2 * t);
+            default:
+                return t;
+        }
+    }
+
+    static final class Transition {
+        final long fadeInUs;
+        final int fadeInCurve;
+        final long fadeOutUs;
+        final int fadeOutCurve;
+
+        Transition(long fadeInUs, int fadeInCurve, long fadeOutUs, int fadeOutCurve) {
+            this.fadeInUs = fadeInUs;
+            this.fadeInCurve = fadeInCurve;
+            this.fadeOutUs = fadeOutUs;
+            this.fadeOutCurve = fadeOutCurve;
+        }
+
+        static Transition fromJson(Map<?, ?> json) {
+            Map<?, ?> fadeIn = json != null ? (Map<?, ?>) json.get("fadeIn") : null;
+            Map<?, ?> fadeOut = json != null ? (Map<?, ?>) json.get("fadeOut") : null;
+            Long fadeInDuration = fadeIn != null ? AudioPlayer.getLong(fadeIn.get("duration")) : null;
+            Long fadeOutDuration = fadeOut != null ? AudioPlayer.getLong(fadeOut.get("duration")) : null;
+            return new Transition(
+                    fadeInDuration != null ? fadeInDuration : 0,
+                    parseCurve(fadeIn != null ? (String) fadeIn.get("curve") : null),
+                    fadeOutDuration != null ? fadeOutDuration : 0,
+                    parseCurve(fadeOut != null ? (String) fadeOut.get("curve") : null));
+        }
+    }
+
+    static final class Fade {
+        final float volume;
+        final long durationUs;
+        final int curve;
+
+        Fade(float volume, long durationUs, int curve) {
+            this.volume = volume;
+            this.durationUs = durationUs;
+            this.curve = curve;
+        }
+    }
+
+    static final class ItemPosition {
+        final long positionUs;
+        final long durationUs;
+
+        ItemPosition(long positionUs, long durationUs) {
+            this.positionUs = positionUs;
+            this.durationUs = durationUs;
+        }
+    }
+}
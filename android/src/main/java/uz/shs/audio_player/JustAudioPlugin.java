@@ -42,7 +42,7 @@ public class JustAudioPlugin implements FlutterPlugin {
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
-        methodCallHandler.dispose();
+        methodCallHandler.release();
         methodCallHandler = null;
 
         channel.setMethodCallHandler(null);
@@ -0,0 +1,67 @@
+package uz.shs.audio_player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Timeline;
+import androidx.media3.datasource.TransferListener;
+import androidx.media3.exoplayer.source.CompositeMediaSource;
+import androidx.media3.exoplayer.source.MediaPeriod;
+import androidx.media3.exoplayer.source.MediaSource;
+import androidx.media3.exoplayer.upstream.Allocator;
+
+/**
+ * A {@link MediaSource} that defers building the real source until ExoPlayer
+ * prepares it.
+ *
+ * Adding thousands of items to a playlist then only costs a placeholder
+ * {@link MediaItem} each, and with lazy preparation only the current and
+ * next items are ever built. The factory is invoked on the playback thread
+ * so it must not touch player state.
+ */
+public class LazyMediaSource extends CompositeMediaSource<Void> {
+
+    interface Factory {
+        MediaSource createMediaSource();
+    }
+
+    private final MediaItem mediaItem;
+    private final Factory factory;
+    private MediaSource mediaSource;
+
+    public LazyMediaSource(MediaItem mediaItem, Factory factory) {
+        this.mediaItem = mediaItem;
+        this.factory = factory;
+    }
+
+    @NonNull
+    @Override
+    public MediaItem getMediaItem() {
+        return mediaItem;
+    }
+
+    @Override
+    protected void prepareSourceInternal(@Nullable TransferListener mediaTransferListener) {
+        super.prepareSourceInternal(mediaTransferListener);
+        if (mediaSource == null) {
+            mediaSource = factory.createMediaSource();
+        }
+        prepareChildSource(null, mediaSource);
+    }
+
+    @Override
+    protected void onChildSourceInfoRefreshed(Void childSourceId, MediaSource mediaSource, Timeline newTimeline) {
+        refreshSourceInfo(newTimeline);
+    }
+
+    @NonNull
+    @Override
+    public MediaPeriod createPeriod(@NonNull MediaPeriodId id, @NonNull Allocator allocator, long startPositionUs) {
+        return mediaSource.createPeriod(id, allocator, startPositionUs);
+    }
+
+    @Override
+    public void releasePeriod(@NonNull MediaPeriod mediaPeriod) {
+        mediaSource.releasePeriod(mediaPeriod);
+    }
+}
@@ -0,0 +1,199 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+
+import io.flutter.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A persistent index of measured track loudness shared by every player in
+ * the process, across all Flutter engines, since they would otherwise
+ * overwrite each other's file. Each {@link MainMethodCallHandler} acquires
+ * a reference to the single instance, which is closed with the last
+ * reference.
+ *
+ * Each entry is 16 bytes on disk: a 64-bit hash of the source URI, the
+ * integrated loudness in LUFS and the sample peak, both as floats. New
+ * measurements are appended to the file, and the file is rewritten without
+ * duplicates once it holds twice as many records as there are entries.
+ * The file is read once, on a background thread, the first time the index
+ * is used; lookups before then simply miss.
+ */
+public class LoudnessIndex {
+    static final String FILE_NAME = "audio_player_loudness.idx";
+    static final int MAX_ENTRIES = 20000;
+
+    private static LoudnessIndex instance;
+    private static int referenceCount;
+
+    private final File file;
+    // Insertion ordered so that the oldest entries are dropped first.
+    private final LinkedHashMap<Long, Long> entries = new LinkedHashMap<>();
+    private ExecutorService executor;
+    private int recordCount;
+    private boolean released;
+
+    private LoudnessIndex(Context applicationContext) {
+        this.file = new File(applicationContext.getFilesDir(), FILE_NAME);
+    }
+
+    // Returns the process-wide index. Each call must be balanced by a call
+    // to release.
+    static LoudnessIndex acquire(Context applicationContext) {
+        synchronized (LoudnessIndex.class) {
+            if (instance == null) {
+                instance = new LoudnessIndex(applicationContext);
+            }
+            referenceCount++;
+            return instance;
+        }
+    }
+
+    // Drops a reference from acquire, closing the index with the last one.
+    void release() {
+        synchronized (LoudnessIndex.class) {
+            if (instance != this || --referenceCount > 0) return;
+            instance = null;
+            close();
+        }
+    }
+
+    // Returns {loudness, peak} for key, or null if it hasn't been measured.
+    synchronized float[] get(String key) {
+        if (released) return null;
+        ensureLoading();
+        Long entry = entries.get(hash(key));
+        if (entry == null) return null;
+        return new float[] {
+                Float.intBitsToFloat((int) (entry >>> 32)),
+                Float.intBitsToFloat((int) (long) entry)};
+    }
+
+    // Must not be called on the audio thread, since it takes the lock that is
+    // held while the index loads.
+    synchronized void put(String key, float loudness, float peak) {
+        // Don't restart the executor and reload the file once released.
+        if (released) return;
+        ensureLoading();
+        final long hash = hash(key);
+        final long entry = ((long) Float.floatToIntBits(loudness) << 32) | (Float.floatToIntBits(peak) & 0xFFFFFFFFL);
+        entries.remove(hash);
+        entries.put(hash, entry);
+        if (entries.size() > MAX_ENTRIES) {
+            Iterator<Long> it = entries.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        executor.execute(() -> append(hash, entry));
+    }
+
+    private synchronized void close() {
+        released = true;
+        if (executor != null) {
+            // Pending writes still complete.
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void ensureLoading() {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AudioPlayer:loudness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::load);
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        Map<Long, Long> loaded = new LinkedHashMap<>();
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                long hash = in.readLong();
+                long entry = in.readLong();
+                loaded.remove(hash);
+                loaded.put(hash, entry);
+                records++;
+            }
+        } catch (EOFException e) {
+            // End of index, or a truncated final record.
+        } catch (IOException e) {
+            Log.w(AudioPlayer.TAG, "Failed to read loudness index: " + e.getMessage());
+        }
+        synchronized (this) {
+            // Measurements made while loading are newer.
+            loaded.keySet().removeAll(entries.keySet());
+            LinkedHashMap<Long, Long> merged = new LinkedHashMap<>(loaded);
+            merged.putAll(entries);
+            entries.clear();
+            entries.putAll(merged);
+            recordCount += records;
+        }
+    }
+
+    private void append(long hash, long entry) {
+        boolean compact;
+        synchronized (this) {
+            recordCount++;
+            compact = recordCount > 2 * Math.max(entries.size(), 64);
+        }
+        if (compact) {
+            rewrite();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            out.writeLong(hash);
+            out.writeLong(entry);
+        } catch (IOException e) {
+            Log.w(AudioPlayer.TAG, "Failed to write loudness index: " + e.getMessage());
+        }
+    }
+
+    private void rewrite() {
+        Map<Long, Long> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+            recordCount = snapshot.size();
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            for (Map.Entry<Long, Long> e : snapshot.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(AudioPlayer.TAG, "Failed to compact loudness index: " + e.getMessage());
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            Log.w(AudioPlayer.TAG, "Failed to replace loudness index");
+        }
+    }
+
+    // 64-bit FNV-1a, so that collisions between URIs are negligible.
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
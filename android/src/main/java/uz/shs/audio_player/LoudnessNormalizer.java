@@ -0,0 +1,538 @@
+package uz.shs.audio_player;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.common.audio.BaseAudioProcessor;
+import androidx.media3.exoplayer.DecoderReuseEvaluation;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Normalizes the loudness of each track to a target level, enabled with
+ * `androidLoudnessNormalization` in the audio load configuration.
+ *
+ * The first time a track is played from its start, its integrated loudness
+ * is measured as it passes through this {@link AudioProcessor}, following
+ * ITU-R BS.1770 / EBU R128: K-weighted mean square over 400ms blocks with a
+ * 75% overlap, an absolute gate at -70 LUFS and a relative gate 10 LU below
+ * the ungated level. Block loudness is accumulated in a fixed 0.1 LU
+ * histogram, so the measurement takes constant memory whatever the track
+ * length and allocates nothing on the audio thread. When the track ends the
+ * result is handed to the player's application thread through a
+ * preallocated slot, and stored from there in the shared
+ * {@link LoudnessIndex} by source URI.
+ *
+ * On later plays the stored loudness gives a fixed gain for the whole track,
+ * applied from its first sample and limited so that the track's peak doesn't
+ * clip. Tracks that haven't been measured yet play at unity gain, since the
+ * level is never adjusted while playing. Channels are weighted equally.
+ *
+ * Tracks are only measured as they play. Prefetching caches a source's bytes
+ * without decoding them, so it doesn't measure the source.
+ *
+ * As in {@link FadeProcessor}, each track's position is followed on the
+ * audio thread, and tracks switch at the exact sample where one ends and
+ * the next begins. A track is reported through {@link AnalyticsListener}
+ * when the audio renderer reads its format, but between gapless tracks that
+ * report is posted to the application thread and may arrive after the new
+ * track's first samples have been processed. The track expected to follow
+ * the current one is therefore looked up on the application thread
+ * whenever the playlist position changes, and taken over from the current
+ * track's last frame. A track reported close to the end of the current one
+ * also waits for that frame.
+ */
+public class LoudnessNormalizer extends BaseAudioProcessor implements AnalyticsListener {
+    static final float DEFAULT_TARGET_LOUDNESS = -14f;
+    static final float DEFAULT_MAX_GAIN = 6f;
+    static final float MIN_GAIN = -20f;
+    // Measurements of shorter tracks aren't stored.
+    static final long MIN_MEASURED_MS = 3000;
+    // A track counts as played from its start if its format arrives this
+    // close to its start.
+    static final long START_TOLERANCE_MS = 500;
+    // As in FadeProcessor.
+    static final long MAX_DEFERRED_SWITCH_US = FadeProcessor.MAX_DEFERRED_SWITCH_US;
+    static final long SEEK_REPORT_WINDOW_US = FadeProcessor.SEEK_REPORT_WINDOW_US;
+
+    private static final float ABSOLUTE_GATE = -70f;
+    private static final float RELATIVE_GATE = -10f;
+    private static final int HISTOGRAM_BINS_PER_LU = 10;
+    // Block loudness from -70 to +10 LUFS.
+    private static final int HISTOGRAM_SIZE = 80 * HISTOGRAM_BINS_PER_LU;
+
+    private final LoudnessIndex index;
+    private final float targetLoudness;
+    private final float maxGain;
+    private final AtomicReference<Track> pendingTrack = new AtomicReference<>();
+    private final AtomicReference<FadeProcessor.ItemPosition> pendingSeek = new AtomicReference<>();
+    // The track expected after the current one, or null if there's none.
+    private final AtomicReference<Track> upcomingTrack = new AtomicReference<>();
+    private final Timeline.Window window = new Timeline.Window();
+    // A measurement completed on the audio thread, waiting to be stored on
+    // the application thread. While one is pending, later measurements are
+    // dropped and the tracks are simply measured again on a later play.
+    private final Measurement completed = new Measurement();
+    private final AtomicBoolean completedPending = new AtomicBoolean();
+
+    // Audio thread state. Positions are in frames, -1 if unknown.
+    private Track track;
+    private long itemFrame = -1;
+    private long itemEndFrame = -1;
+    // Frames processed since the current track was entered.
+    private long trackFrames;
+    private Track nextTrack;
+    // Whether the current track was entered as the upcoming track, so its
+    // own report is still to come.
+    private boolean enteredUpcoming;
+    private boolean awaitingSeek;
+    private long framesSinceFlush;
+    private boolean drained;
+    private float gain = 1f;
+    private float targetGain = 1f;
+    private boolean measuring;
+    private int sampleRate;
+    private int channelCount;
+    // K-weighting: a high shelf followed by a high pass, each b0, b1, b2,
+    // a1, a2 (normalized by a0), and z1, z2 per stage and channel.
+    private final double[] kWeighting = new double[10];
+    private double[] filterState = new double[0];
+    private int subBlockSize;
+    private int subBlockFrames;
+    private double subBlockEnergy;
+    private final double[] subBlocks = new double[4];
+    private int subBlockCount;
+    private final long[] histogramCounts = new long[HISTOGRAM_SIZE];
+    private final double[] histogramEnergies = new double[HISTOGRAM_SIZE];
+    private float peak;
+    private long measuredFrames;
+
+    // Creates a normalizer from an `androidLoudnessNormalization`
+    // configuration, which may set `targetLoudness` in LUFS and `maxGain` in
+    // dB.
+    public LoudnessNormalizer(Map<?, ?> json, LoudnessIndex index) {
+        this.index = index;
+        Double targetLoudness = json != null ? (Double) json.get("targetLoudness") : null;
+        Double maxGain = json != null ? (Double) json.get("maxGain") : null;
+        this.targetLoudness = targetLoudness != null ? (float) (double) targetLoudness : DEFAULT_TARGET_LOUDNESS;
+        this.maxGain = maxGain != null ? (float) (double) maxGain : DEFAULT_MAX_GAIN;
+    }
+
+    @Override
+    public void onAudioInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format, @Nullable DecoderReuseEvaluation decoderReuseEvaluation) {
+        if (eventTime.timeline.isEmpty()) return;
+        eventTime.timeline.getWindow(eventTime.windowIndex, window);
+        long positionUs = eventTime.eventPlaybackPositionMs * 1000;
+        boolean fromStart = eventTime.eventPlaybackPositionMs <= START_TOLERANCE_MS;
+        pendingTrack.set(buildTrack(null, fromStart, positionUs));
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+        if (reason != Player.DISCONTINUITY_REASON_SEEK && reason != Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT) return;
+        if (eventTime.timeline.isEmpty()) return;
+        long durationUs = eventTime.timeline.getWindow(newPosition.mediaItemIndex, window).durationUs;
+        pendingSeek.set(new FadeProcessor.ItemPosition(newPosition.positionMs * 1000, durationUs));
+    }
+
+    @Override
+    public void onEvents(@NonNull Player player, @NonNull Events events) {
+        storeCompletedMeasurement();
+        if (events.containsAny(EVENT_TIMELINE_CHANGED, EVENT_MEDIA_ITEM_TRANSITION,
+                EVENT_REPEAT_MODE_CHANGED, EVENT_SHUFFLE_MODE_ENABLED_CHANGED)) {
+            updateUpcomingTrack(player);
+        }
+    }
+
+    private void updateUpcomingTrack(Player player) {
+        Timeline timeline = player.getCurrentTimeline();
+        int nextIndex = player.getNextMediaItemIndex();
+        if (timeline.isEmpty() || nextIndex == C.INDEX_UNSET) {
+            upcomingTrack.set(null);
+            return;
+        }
+        Object previousUid = timeline.getWindow(player.getCurrentMediaItemIndex(), window).uid;
+        timeline.getWindow(nextIndex, window);
+        upcomingTrack.set(buildTrack(previousUid, true, 0));
+    }
+
+    // Builds the track for the media item in window.
+    private Track buildTrack(Object previousUid, boolean fromStart, long positionUs) {
+        String key = getKey(window.mediaItem);
+        if (key == null) {
+            return new Track(window.uid, previousUid, null, false, null, positionUs, window.durationUs);
+        }
+        return new Track(window.uid, previousUid, key, fromStart, index.get(key), positionUs, window.durationUs);
+    }
+
+    // Stores the measurement handed over by the audio thread, if any. Called
+    // on the application thread after each batch of player events, and when
+    // the player is released.
+    void storeCompletedMeasurement() {
+        if (!completedPending.get()) return;
+        index.put(completed.key, completed.loudness, completed.peak);
+        completedPending.set(false);
+    }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        applyPendingChanges();
+        int remaining = inputBuffer.remaining();
+        if (remaining == 0) return;
+        ByteBuffer outputBuffer = replaceOutputBuffer(remaining);
+        int frameCount = remaining / inputAudioFormat.bytesPerFrame;
+        framesSinceFlush += frameCount;
+        trackFrames += frameCount;
+        boolean switching = itemFrame >= 0 && itemFrame < itemEndFrame && itemFrame + frameCount >= itemEndFrame;
+        if (!measuring && !switching && gain == targetGain && gain == 1f) {
+            if (itemFrame >= 0) itemFrame += frameCount;
+            outputBuffer.put(inputBuffer);
+            outputBuffer.flip();
+            return;
+        }
+        boolean isFloat = inputAudioFormat.encoding == C.ENCODING_PCM_FLOAT;
+        // Gain changes are ramped across one buffer, except at the start of
+        // a track, where the new gain applies from its first sample.
+        float gainStep = (targetGain - gain) / frameCount;
+        ByteBuffer input = inputBuffer.order(ByteOrder.nativeOrder());
+        for (int frame = 0; frame < frameCount; frame++) {
+            gain += gainStep;
+            double frameEnergy = 0;
+            for (int channel = 0; channel < channelCount; channel++) {
+                float x = isFloat ? input.getFloat() : input.getShort() / 32768f;
+                if (measuring) {
+                    peak = Math.max(peak, Math.abs(x));
+                    double y = kWeight(x, channel);
+                    frameEnergy += y * y;
+                }
+                float out = x * gain;
+                if (isFloat) {
+                    outputBuffer.putFloat(out);
+                } else {
+                    outputBuffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(out * 32768f))));
+                }
+            }
+            if (measuring) {
+                measuredFrames++;
+                subBlockEnergy += frameEnergy;
+                if (++subBlockFrames == subBlockSize) {
+                    endSubBlock();
+                }
+            }
+            if (itemFrame >= 0 && ++itemFrame == itemEndFrame && endItem()) {
+                trackFrames = frameCount - frame - 1;
+                gain = targetGain;
+                gainStep = 0;
+            }
+        }
+        gain = targetGain;
+        outputBuffer.flip();
+    }
+
+    @Override
+    protected void onQueueEndOfStream() {
+        // The sink drains before reconfiguring for the next track's format,
+        // so the current track has finished.
+        drained = true;
+        // Unless the track was only just entered at the end of the last.
+        if (trackFrames > 0) endItem();
+    }
+
+    @Override
+    protected void onFlush() {
+        int newSampleRate = inputAudioFormat.sampleRate;
+        if (drained) {
+            // Reconfigured between tracks: the position carries on.
+            if (sampleRate != 0 && newSampleRate != sampleRate) {
+                if (itemFrame >= 0) itemFrame = itemFrame * newSampleRate / sampleRate;
+                if (itemEndFrame >= 0) itemEndFrame = itemEndFrame * newSampleRate / sampleRate;
+            }
+        } else {
+            // A seek, reported separately.
+            itemFrame = -1;
+            itemEndFrame = -1;
+            nextTrack = null;
+            enteredUpcoming = false;
+        }
+        drained = false;
+        awaitingSeek = true;
+        framesSinceFlush = 0;
+        if (sampleRate != newSampleRate || channelCount != inputAudioFormat.channelCount) {
+            sampleRate = inputAudioFormat.sampleRate;
+            channelCount = inputAudioFormat.channelCount;
+            subBlockSize = Math.max(1, sampleRate / 10);
+            computeKWeighting(sampleRate);
+            filterState = new double[channelCount * 4];
+        }
+        // A flush well into a track is a seek, after which the rest of the
+        // track can't be measured. Earlier flushes come from the sink
+        // reconfiguring for the track's format.
+        if (measuredFrames > sampleRate / 2) {
+            measuring = false;
+        }
+        resetMeasurement();
+        gain = targetGain;
+    }
+
+    @Override
+    protected void onReset() {
+        itemFrame = -1;
+        itemEndFrame = -1;
+        nextTrack = null;
+        enteredUpcoming = false;
+        awaitingSeek = false;
+        drained = false;
+        measuring = false;
+        resetMeasurement();
+        sampleRate = 0;
+        channelCount = 0;
+        filterState = new double[0];
+        gain = targetGain;
+    }
+
+    private void applyPendingChanges() {
+        if (awaitingSeek) {
+            FadeProcessor.ItemPosition seek = pendingSeek.getAndSet(null);
+            if (seek != null) {
+                // Audio since the flush was already from the new position.
+                itemFrame = toFrames(seek.positionUs) + framesSinceFlush;
+                itemEndFrame = seek.durationUs == C.TIME_UNSET ? -1 : toFrames(seek.durationUs);
+                awaitingSeek = false;
+            } else if (framesSinceFlush >= toFrames(SEEK_REPORT_WINDOW_US)) {
+                awaitingSeek = false;
+            }
+        }
+        Track newTrack = pendingTrack.getAndSet(null);
+        if (newTrack != null && enteredUpcoming && track != null && newTrack.uid.equals(track.uid)) {
+            // The late report of the track already entered.
+            enteredUpcoming = false;
+        } else if (newTrack != null) {
+            if (itemFrame >= 0 && itemEndFrame >= 0 && itemFrame < itemEndFrame
+                    && itemEndFrame - itemFrame <= toFrames(MAX_DEFERRED_SWITCH_US)) {
+                nextTrack = newTrack;
+            } else {
+                switchTrack(newTrack);
+            }
+        }
+    }
+
+    // Called once the last frame of the current track has been processed.
+    // Returns whether the next track took over. A track that isn't known yet
+    // is switched to when it's reported, and until then the finished track
+    // is no longer measured.
+    private boolean endItem() {
+        Track upcoming = upcomingTrack.get();
+        if (nextTrack != null) {
+            switchTrack(nextTrack);
+        } else if (upcoming != null && track != null && upcoming.previousUid.equals(track.uid)) {
+            switchTrack(upcoming);
+            enteredUpcoming = true;
+        } else {
+            if (measuring && measuredFrames >= minMeasuredFrames()) {
+                finishMeasurement();
+            }
+            measuring = false;
+            return false;
+        }
+        return true;
+    }
+
+    private void switchTrack(Track newTrack) {
+        if (measuring && measuredFrames >= minMeasuredFrames()) {
+            finishMeasurement();
+        }
+        track = newTrack;
+        trackFrames = 0;
+        nextTrack = null;
+        enteredUpcoming = false;
+        awaitingSeek = false;
+        itemFrame = toFrames(newTrack.positionUs);
+        itemEndFrame = newTrack.durationUs == C.TIME_UNSET ? -1 : toFrames(newTrack.durationUs);
+        if (newTrack.measurement != null) {
+            targetGain = computeGain(newTrack.measurement[0], newTrack.measurement[1]);
+            measuring = false;
+        } else {
+            targetGain = 1f;
+            measuring = newTrack.key != null && newTrack.fromStart;
+        }
+        resetMeasurement();
+    }
+
+    private void finishMeasurement() {
+        measuring = false;
+        float loudness = integratedLoudness();
+        if (track != null && track.key != null && !Float.isNaN(loudness) && !completedPending.get()) {
+            completed.key = track.key;
+            completed.loudness = loudness;
+            completed.peak = peak;
+            // Publishes the fields above to the application thread.
+            completedPending.set(true);
+        }
+    }
+
+    private long minMeasuredFrames() {
+        return sampleRate * MIN_MEASURED_MS / 1000;
+    }
+
+    private long toFrames(long durationUs) {
+        return durationUs * inputAudioFormat.sampleRate / 1000000;
+    }
+
+    private void resetMeasurement() {
+        Arrays.fill(filterState, 0);
+        Arrays.fill(histogramCounts, 0);
+        Arrays.fill(histogramEnergies, 0);
+        subBlockFrames = 0;
+        subBlockEnergy = 0;
+        subBlockCount = 0;
+        peak = 0;
+        measuredFrames = 0;
+    }
+
+    private float computeGain(float loudness, float peak) {
+        float gainDecibels = Math.max(MIN_GAIN, Math.min(maxGain, targetLoudness - loudness));
+        if (peak > 0) {
+            gainDecibels = Math.min(gainDecibels, (float) (-20 * Math.log10(peak)));
+        }
+        return (float) Math.pow(10, gainDecibels / 20.0);
+    }
+
+    private double kWeight(double x, int channel) {
+        double[] k = kWeighting;
+        int s = channel * 4;
+        double y = k[0] * x + filterState[s];
+        filterState[s] = k[1] * x - k[3] * y + filterState[s + 1];
+        filterState[s + 1] = k[2] * x - k[4] * y;
+        x = y;
+        y = k[5] * x + filterState[s + 2];
+        filterState[s + 2] = k[6] * x - k[8] * y + filterState[s + 3];
+        filterState[s + 3] = k[7] * x - k[9] * y;
+        return y;
+    }
+
+    // Each 100ms sub-block completes a 400ms gating block with the previous
+    // three.
+    private void endSubBlock() {
+        subBlocks[subBlockCount & 3] = subBlockEnergy / subBlockSize;
+        subBlockCount++;
+        subBlockFrames = 0;
+        subBlockEnergy = 0;
+        if (subBlockCount < 4) return;
+        double blockEnergy = (subBlocks[0] + subBlocks[1] + subBlocks[2] + subBlocks[3]) / 4;
+        double loudness = toLoudness(blockEnergy);
+        if (loudness <= ABSOLUTE_GATE) return;
+        int bin = Math.min(HISTOGRAM_SIZE - 1, (int) ((loudness - ABSOLUTE_GATE) * HISTOGRAM_BINS_PER_LU));
+        histogramCounts[bin]++;
+        histogramEnergies[bin] += blockEnergy;
+    }
+
+    // Returns NaN if every block was below the absolute gate.
+    private float integratedLoudness() {
+        long count = 0;
+        double energy = 0;
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            count += histogramCounts[i];
+            energy += histogramEnergies[i];
+        }
+        if (count == 0) return Float.NaN;
+        double relativeGate = toLoudness(energy / count) + RELATIVE_GATE;
+        int firstBin = Math.max(0, (int) Math.ceil((relativeGate - ABSOLUTE_GATE) * HISTOGRAM_BINS_PER_LU));
+        count = 0;
+        energy = 0;
+        for (int i = firstBin; i < HISTOGRAM_SIZE; i++) {
+            count += histogramCounts[i];
+            energy += histogramEnergies[i];
+        }
+        if (count == 0) return Float.NaN;
+        return (float) toLoudness(energy / count);
+    }
+
+    private static double toLoudness(double meanSquare) {
+        return -0.691 + 10 * Math.log10(meanSquare);
+    }
+
+    // The BS.1770 K-weighting filters, derived for any sample rate.
+    private void computeKWeighting(int sampleRate) {
+        double[] k = kWeighting;
+        // High shelf: +4dB above ~1.7kHz.
+        double a = Math.pow(10, 3.999843853973347 / 40);
+        double w0 = 2 * Math.PI * 1681.974450955533 / sampleRate;
+        double cosW0 = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * 0.7071752369554196);
+        double sqrtA = Math.sqrt(a);
+        double a0 = (a + 1) - (a - 1) * cosW0 + 2 * sqrtA * alpha;
+        k[0] = a * ((a + 1) + (a - 1) * cosW0 + 2 * sqrtA * alpha) / a0;
+        k[1] = -2 * a * ((a - 1) + (a + 1) * cosW0) / a0;
+        k[2] = a * ((a + 1) + (a - 1) * cosW0 - 2 * sqrtA * alpha) / a0;
+        k[3] = 2 * ((a - 1) - (a + 1) * cosW0) / a0;
+        k[4] = ((a + 1) - (a - 1) * cosW0 - 2 * sqrtA * alpha) / a0;
+        // High pass at ~38Hz.
+        w0 = 2 * Math.PI * 38.13547087602444 / sampleRate;
+        cosW0 = Math.cos(w0);
+        alpha = Math.sin(w0) / (2 * 0.5003270373238773);
+        a0 = 1 + alpha;
+        k[5] = (1 + cosW0) / 2 / a0;
+        k[6] = -(1 + cosW0) / a0;
+        k[7] = (1 + cosW0) / 2 / a0;
+        k[8] = -2 * cosW0 / a0;
+        k[9] = (1 - alpha) / a0;
+    }
+
+    private static String getKey(MediaItem mediaItem) {
+        if (mediaItem.localConfiguration == null) return null;
+        Uri uri = mediaItem.localConfiguration.uri;
+        return Uri.EMPTY.equals(uri) ? null : uri.toString();
+    }
+
+    static final class Measurement {
+        String key;
+        float loudness;
+        float peak;
+    }
+
+    static final class Track {
+        // The window uid of the media item.
+        final Object uid;
+        // For an upcoming track, the uid of the track it follows.
+        final Object previousUid;
+        // Null for a track that can't be looked up or measured, such as
+        // silence.
+        final String key;
+        final boolean fromStart;
+        // {loudness, peak}, or null if not measured yet.
+        final float[] measurement;
+        final long positionUs;
+        final long durationUs;
+
+        Track(Object uid, Object previousUid, String key, boolean fromStart, float[] measurement, long positionUs, long durationUs) {
+            this.uid = uid;
+            this.previousUid = previousUid;
+            this.key = key;
+            this.fromStart = fromStart;
+            this.measurement = measurement;
+            this.positionUs = positionUs;
+            this.durationUs = durationUs;
+        }
+    }
+}
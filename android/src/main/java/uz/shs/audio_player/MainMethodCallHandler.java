@@ -10,18 +10,34 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MainMethodCallHandler implements MethodCallHandler {
 
     private final Context applicationContext;
     private final BinaryMessenger messenger;
+    private final MediaCache mediaCache;
+    private final NetworkStack networkStack;
+    private final MediaSourceFactories mediaSourceFactories;
+    private final PlaybackThreads playbackThreads = new PlaybackThreads();
+    private final ExoPlayerPool playerPool = new ExoPlayerPool();
+    private final BandwidthManager bandwidthManager;
+    private final LoudnessIndex loudnessIndex;
+    private final WaveformCache waveformCache;
 
-    private final Map<String, AudioPlayer> players = new HashMap<>();
+    private final ConcurrentHashMap<String, PlayerEntry> players = new ConcurrentHashMap<>();
 
     public MainMethodCallHandler(Context applicationContext,
             BinaryMessenger messenger) {
         this.applicationContext = applicationContext;
         this.messenger = messenger;
+        this.mediaCache = MediaCache.acquire(applicationContext);
+        this.networkStack = new NetworkStack();
+        this.mediaSourceFactories = new MediaSourceFactories(applicationContext, mediaCache, networkStack);
+        this.bandwidthManager = new BandwidthManager(applicationContext);
+        this.loudnessIndex = LoudnessIndex.acquire(applicationContext);
+        this.waveformCache = WaveformCache.acquire(applicationContext);
     }
 
     @Override
@@ -29,38 +45,55 @@ public class MainMethodCallHandler implements MethodCallHandler {
         switch (call.method) {
         case "init": {
             String id = call.argument("id");
-            if (players.containsKey(id)) {
-                result.error("Platform player " + id + " already exists", null, null);
+            // Players are only added here, on the platform thread, so the id
+            // can't be taken while the player is constructed.
+            PlayerEntry existing = players.get(id);
+            if (existing != null) {
+                if (existing.state == PlayerState.DISPOSING) {
+                    result.error("Platform player " + id + " is being disposed", null, null);
+                } else {
+                    result.error("Platform player " + id + " already exists", null, null);
+                }
                 break;
             }
             List<Object> rawAudioEffects = call.argument("androidAudioEffects");
-            players.put(
-                id,
-                new AudioPlayer(
+            PlayerEntry entry = new PlayerEntry(new AudioPlayer(
                     applicationContext,
                     messenger,
                     id,
                     call.argument("audioLoadConfiguration"),
                     rawAudioEffects,
-                    call.argument("androidOffloadSchedulingEnabled")
-                )
-            );
-            result.success(null);
+                    call.argument("androidOffloadSchedulingEnabled"),
+                    mediaCache,
+                    mediaSourceFactories,
+                    playbackThreads,
+                    playerPool,
+                    bandwidthManager,
+                    loudnessIndex,
+                    waveformCache
+            ));
+            players.put(id, entry);
+            // Opt in to building the player now rather than on the first
+            // load, so that cost is off the critical path.
+            boolean warm = false;
+            if (Boolean.TRUE.equals(call.argument("androidEagerInitialization"))) {
+                warm = entry.player.initializeEagerly();
+            }
+            result.success(AudioPlayer.mapOf("warm", warm));
             break;
         }
         case "disposePlayer": {
             String id = call.argument("id");
-            AudioPlayer player = players.get(id);
-            if (player != null) {
-                player.dispose();
-                players.remove(id);
+            PlayerEntry entry = players.get(id);
+            final Result mainThreadResult = new MainThreadResult(result);
+            if (entry == null || !disposePlayer(id, entry, () -> mainThreadResult.success(new HashMap<String, Object>()))) {
+                result.success(new HashMap<String, Object>());
             }
-            result.success(new HashMap<String, Object>());
             break;
         }
         case "disposeAllPlayers": {
-            dispose();
-            result.success(new HashMap<String, Object>());
+            final Result mainThreadResult = new MainThreadResult(result);
+            disposeAllPlayers(() -> mainThreadResult.success(new HashMap<String, Object>()));
             break;
         }
         default:
@@ -69,10 +102,80 @@ public class MainMethodCallHandler implements MethodCallHandler {
         }
     }
 
+    // Disposes every player and then releases the resources they share.
+    // The process-wide caches are kept, since after a hot restart this
+    // handler carries on serving new players.
     void dispose() {
-        for (AudioPlayer player : new ArrayList<AudioPlayer>(players.values())) {
-            player.dispose();
+        dispose(false);
+    }
+
+    // Like dispose(), but also drops this engine's references to
+    // the process-wide caches. Called once, when the engine detaches.
+    void release() {
+        dispose(true);
+    }
+
+    private void dispose(final boolean releaseCaches) {
+        disposeAllPlayers(() -> MainThreadResult.runOnMainThread(() -> {
+            if (releaseCaches) {
+                mediaCache.release();
+                loudnessIndex.release();
+                waveformCache.release();
+            }
+            // Players created while these were disposing still need them.
+            if (!players.isEmpty()) return;
+            mediaSourceFactories.clear();
+            networkStack.release();
+            playerPool.clear();
+            bandwidthManager.release();
+            playbackThreads.release();
+        }));
+    }
+
+    // Disposes all players in parallel, each on its own playback looper,
+    // and runs onDisposed once every release has finished. ExoPlayer must be
+    // released on its application looper, so players on the main looper
+    // are still released there, one message each.
+    private void disposeAllPlayers(final Runnable onDisposed) {
+        final List<Map.Entry<String, PlayerEntry>> entries = new ArrayList<>(players.entrySet());
+        final AtomicInteger remaining = new AtomicInteger(entries.size() + 1);
+        final Runnable onPlayerDisposed = () -> {
+            if (remaining.decrementAndGet() == 0) onDisposed.run();
+        };
+        for (Map.Entry<String, PlayerEntry> entry : entries) {
+            if (!disposePlayer(entry.getKey(), entry.getValue(), onPlayerDisposed)) {
+                onPlayerDisposed.run();
+            }
+        }
+        onPlayerDisposed.run();
+    }
+
+    // Starts disposing a player, and removes it from the registry once it
+    // has been released. Returns false if it was already being disposed,
+    // in which case onDisposed is not called.
+    private boolean disposePlayer(final String id, final PlayerEntry entry, final Runnable onDisposed) {
+        synchronized (entry) {
+            if (entry.state != PlayerState.ACTIVE) return false;
+            entry.state = PlayerState.DISPOSING;
+        }
+        entry.player.dispose(() -> {
+            players.remove(id, entry);
+            onDisposed.run();
+        });
+        return true;
+    }
+
+    private enum PlayerState {
+        ACTIVE,
+        DISPOSING
+    }
+
+    private static final class PlayerEntry {
+        final AudioPlayer player;
+        volatile PlayerState state = PlayerState.ACTIVE;
+
+        PlayerEntry(AudioPlayer player) {
+            this.player = player;
         }
-        players.clear();
     }
 }
@@ -0,0 +1,44 @@
+package uz.shs.audio_player;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * A {@link Result} that can be completed from any thread. Flutter requires
+ * replies to be sent on the platform thread, so completions from other
+ * threads are posted to the main looper.
+ */
+public class MainThreadResult implements Result {
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Result result;
+
+    public MainThreadResult(Result result) {
+        this.result = result;
+    }
+
+    @Override
+    public void success(final Object value) {
+        runOnMainThread(() -> result.success(value));
+    }
+
+    @Override
+    public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+        runOnMainThread(() -> result.error(errorCode, errorMessage, errorDetails));
+    }
+
+    @Override
+    public void notImplemented() {
+        runOnMainThread(result::notImplemented);
+    }
+
+    static void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mainHandler.post(runnable);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+
+import androidx.media3.common.C;
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.ResolvingDataSource;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheKeyFactory;
+import androidx.media3.datasource.cache.CacheWriter;
+import androidx.media3.datasource.cache.LeastRecentlyUsedCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.media3.exoplayer.hls.HlsDataSourceFactory;
+
+import io.flutter.Log;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An LRU-evicting disk cache of media bytes shared by every player in the
+ * process, across all Flutter engines. {@link SimpleCache} allows only one
+ * instance per directory, so each {@link MainMethodCallHandler} acquires a
+ * reference to the single instance and the cache is closed with the last
+ * reference.
+ *
+ * The underlying {@link SimpleCache} is opened lazily on first use so that
+ * players that never enable caching don't pay for it, and it can only be
+ * sized before it is opened. Cache keys include a SHA-256 digest of the
+ * request headers so that the same URI requested with different headers
+ * (e.g. different auth tokens) doesn't share entries.
+ */
+public class MediaCache {
+    static final String CACHE_DIRECTORY = "audio_player_media_cache";
+    static final long DEFAULT_MAX_CACHE_SIZE = 256L * 1024 * 1024;
+    static final int PREFETCH_THREADS = 2;
+    static final int PREFETCH_QUEUE_CAPACITY = 32;
+
+    private static MediaCache instance;
+    private static int referenceCount;
+
+    private final Context context;
+    private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private StandaloneDatabaseProvider databaseProvider;
+    private SimpleCache cache;
+    private ExecutorService prefetchExecutor;
+
+    private MediaCache(Context applicationContext) {
+        this.context = applicationContext;
+    }
+
+    // Returns the process-wide cache. Each call must be balanced by a call
+    // to release.
+    static MediaCache acquire(Context applicationContext) {
+        synchronized (MediaCache.class) {
+            if (instance == null) {
+                instance = new MediaCache(applicationContext);
+            }
+            referenceCount++;
+            return instance;
+        }
+    }
+
+    // Drops a reference from acquire, closing the cache with the last one.
+    // The class lock is held while closing so that a new instance can't
+    // open the directory before this one lets go of it.
+    void release() {
+        synchronized (MediaCache.class) {
+            if (instance != this || --referenceCount > 0) return;
+            instance = null;
+            close();
+        }
+    }
+
+    // Applies an `androidCache` configuration map. The size only takes
+    // effect if the cache has not been opened yet.
+    synchronized void configure(Map<?, ?> json) {
+        Long maxCacheSize = AudioPlayer.getLong(json.get("maxCacheSize"));
+        if (maxCacheSize == null) return;
+        if (cache != null) {
+            if (maxCacheSize != this.maxCacheSize) {
+                Log.w(AudioPlayer.TAG, "Media cache already open with size " + this.maxCacheSize + ", ignoring " + maxCacheSize);
+            }
+            return;
+        }
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    synchronized SimpleCache getCache() {
+        if (cache == null) {
+            databaseProvider = new StandaloneDatabaseProvider(context);
+            cache = new SimpleCache(
+                    new File(context.getCacheDir(), CACHE_DIRECTORY),
+                    new LeastRecentlyUsedCacheEvictor(maxCacheSize),
+                    databaseProvider);
+        }
+        return cache;
+    }
+
+    // Wraps upstreamFactory so that reads are served from and
+    // written to the cache. Responses of unknown length (e.g. ICY radio
+    // streams) bypass the cache rather than filling it.
+    DataSource.Factory buildCacheDataSourceFactory(DataSource.Factory upstreamFactory, Map<String, String> headers) {
+        return new ResolvingDataSource.Factory(buildRawCacheDataSourceFactory(upstreamFactory, headers), dataSpec -> dataSpec.buildUpon()
+                .setFlags(dataSpec.flags | DataSpec.FLAG_DONT_CACHE_IF_LENGTH_UNKNOWN)
+                .build());
+    }
+
+    // Like buildCacheDataSourceFactory but without the unknown
+    // length bypass, for callers such as CacheWriter that need the
+    // CacheDataSource itself and set their own DataSpec flags.
+    CacheDataSource.Factory buildRawCacheDataSourceFactory(DataSource.Factory upstreamFactory, Map<String, String> headers) {
+        final String keySuffix = buildKeySuffix(headers);
+        return new CacheDataSource.Factory()
+                .setCache(getCache())
+                .setUpstreamDataSourceFactory(upstreamFactory)
+                .setCacheKeyFactory(dataSpec -> CacheKeyFactory.DEFAULT.buildCacheKey(dataSpec) + keySuffix)
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+
+    // A small, low priority executor shared by all players for warming the
+    // cache in the background. Work beyond the queue capacity is rejected
+    // rather than queued indefinitely.
+    synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    PREFETCH_THREADS, PREFETCH_THREADS,
+                    30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE_CAPACITY),
+                    runnable -> {
+                        Thread thread = new Thread(() -> {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }, "AudioPlayerPrefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            prefetchExecutor = executor;
+        }
+        return prefetchExecutor;
+    }
+
+    // Builds an HLS data source factory that caches media segments but
+    // always fetches playlists from upstream so that live playlists never
+    // go stale.
+    HlsDataSourceFactory buildHlsDataSourceFactory(final DataSource.Factory upstreamFactory, Map<String, String> headers) {
+        final DataSource.Factory cachedFactory = buildCacheDataSourceFactory(upstreamFactory, headers);
+        return dataType -> dataType == C.DATA_TYPE_MANIFEST
+                ? upstreamFactory.createDataSource()
+                : cachedFactory.createDataSource();
+    }
+
+    private synchronized void close() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+            prefetchExecutor = null;
+        }
+        if (cache != null) {
+            cache.release();
+            cache = null;
+        }
+        if (databaseProvider != null) {
+            databaseProvider.close();
+            databaseProvider = null;
+        }
+    }
+
+    static boolean isCacheable(Uri uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    // Digests the headers sorted by name, since the key must not depend on
+    // map order. A 32-bit hash would let two header sets collide and serve
+    // each other's bytes.
+    static String buildKeySuffix(Map<String, String> headers) {
+        if (headers == null || headers.isEmpty()) return "";
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+            // Names and values can't contain NUL, so the encoding is
+            // unambiguous.
+            digest.update(header.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(header.getValue()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        StringBuilder suffix = new StringBuilder("#");
+        for (byte b : digest.digest()) {
+            suffix.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return suffix.toString();
+    }
+}
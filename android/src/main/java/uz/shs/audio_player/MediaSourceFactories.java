@@ -0,0 +1,189 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DefaultDataSource;
+import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.exoplayer.dash.DashMediaSource;
+import androidx.media3.exoplayer.dash.DefaultDashChunkSource;
+import androidx.media3.exoplayer.hls.HlsMediaSource;
+import androidx.media3.exoplayer.source.ProgressiveMediaSource;
+import androidx.media3.extractor.DefaultExtractorsFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Builds and reuses the data source and media source factories needed to
+ * decode audio sources.
+ *
+ * Sources with the same headers, extractor options, network
+ * configuration and retry policy share one set of factories, across sources and across
+ * players, instead of allocating a new factory chain per source. Entries are evicted least recently used so
+ * that per-track headers (e.g. signed tokens) can't grow the cache without
+ * bound. Lookups may come from the playback thread via
+ * {@link LazyMediaSource} so access is synchronized.
+ */
+public class MediaSourceFactories {
+    static final int MAX_ENTRIES = 64;
+
+    private final Context context;
+    private final MediaCache mediaCache;
+    private final NetworkStack networkStack;
+    private final String defaultUserAgent;
+    private final Map<Key, Object> factories = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public MediaSourceFactories(Context applicationContext, MediaCache mediaCache, NetworkStack networkStack) {
+        this.context = applicationContext;
+        this.mediaCache = mediaCache;
+        this.networkStack = networkStack;
+        this.defaultUserAgent = Util.getUserAgent(applicationContext, "just_audio");
+    }
+
+    // Returns the upstream (uncached) data source factory for headers.
+    synchronized DataSource.Factory getDataSourceFactory(Map<String, String> headers, NetworkStack.Configuration network) {
+        Key key = new Key("upstream", headers, null, false, network, null);
+        DataSource.Factory factory = (DataSource.Factory) factories.get(key);
+        if (factory == null) {
+            factory = buildDataSourceFactory(headers, network);
+            factories.put(key, factory);
+        }
+        return factory;
+    }
+
+    synchronized ProgressiveMediaSource.Factory getProgressiveFactory(Map<String, String> headers, Map<?, ?> extractorOptions, boolean cached, NetworkStack.Configuration network, RetryPolicy retryPolicy) {
+        Key key = new Key("progressive", headers, extractorOptions, cached, network, retryPolicy);
+        ProgressiveMediaSource.Factory factory = (ProgressiveMediaSource.Factory) factories.get(key);
+        if (factory == null) {
+            factory = new ProgressiveMediaSource.Factory(getMaybeCachedFactory(headers, cached, network), buildExtractorsFactory(extractorOptions))
+                    .setLoadErrorHandlingPolicy(retryPolicy);
+            factories.put(key, factory);
+        }
+        return factory;
+    }
+
+    synchronized DashMediaSource.Factory getDashFactory(Map<String, String> headers, boolean cached, NetworkStack.Configuration network, RetryPolicy retryPolicy) {
+        Key key = new Key("dash", headers, null, cached, network, retryPolicy);
+        DashMediaSource.Factory factory = (DashMediaSource.Factory) factories.get(key);
+        if (factory == null) {
+            factory = new DashMediaSource.Factory(
+                    new DefaultDashChunkSource.Factory(getMaybeCachedFactory(headers, cached, network)),
+                    getDataSourceFactory(headers, network))
+                    .setLoadErrorHandlingPolicy(retryPolicy);
+            factories.put(key, factory);
+        }
+        return factory;
+    }
+
+    synchronized HlsMediaSource.Factory getHlsFactory(Map<String, String> headers, boolean cached, NetworkStack.Configuration network, RetryPolicy retryPolicy) {
+        Key key = new Key("hls", headers, null, cached, network, retryPolicy);
+        HlsMediaSource.Factory factory = (HlsMediaSource.Factory) factories.get(key);
+        if (factory == null) {
+            factory = cached
+                    ? new HlsMediaSource.Factory(mediaCache.buildHlsDataSourceFactory(getDataSourceFactory(headers, network), headers))
+                    : new HlsMediaSource.Factory(getDataSourceFactory(headers, network));
+            factory.setLoadErrorHandlingPolicy(retryPolicy);
+            factories.put(key, factory);
+        }
+        return factory;
+    }
+
+    synchronized void clear() {
+        factories.clear();
+    }
+
+    static boolean shouldCache(boolean cacheEnabled, Uri uri) {
+        return cacheEnabled && MediaCache.isCacheable(uri);
+    }
+
+    synchronized DataSource.Factory getMaybeCachedFactory(Map<String, String> headers, boolean cached, NetworkStack.Configuration network) {
+        if (!cached) return getDataSourceFactory(headers, network);
+        Key key = new Key("cached", headers, null, true, network, null);
+        DataSource.Factory factory = (DataSource.Factory) factories.get(key);
+        if (factory == null) {
+            factory = mediaCache.buildCacheDataSourceFactory(getDataSourceFactory(headers, network), headers);
+            factories.put(key, factory);
+        }
+        return factory;
+    }
+
+    private DataSource.Factory buildDataSourceFactory(Map<String, String> headers, NetworkStack.Configuration network) {
+        Map<String, String> requestProperties = headers != null ? new LinkedHashMap<>(headers) : null;
+        String userAgent = null;
+        if (requestProperties != null) {
+            userAgent = requestProperties.remove("User-Agent");
+            if (userAgent == null) {
+                userAgent = requestProperties.remove("user-agent");
+            }
+        }
+        if (userAgent == null) {
+            userAgent = defaultUserAgent;
+        }
+        HttpDataSource.Factory httpDataSourceFactory = networkStack.createHttpDataSourceFactory(network, userAgent);
+        if (requestProperties != null && requestProperties.size() > 0) {
+            httpDataSourceFactory.setDefaultRequestProperties(requestProperties);
+        }
+        return new DefaultDataSource.Factory(context, httpDataSourceFactory);
+    }
+
+    static DefaultExtractorsFactory buildExtractorsFactory(Map<?, ?> androidExtractorOptions) {
+        DefaultExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
+        boolean constantBitrateSeekingEnabled = true;
+        boolean constantBitrateSeekingAlwaysEnabled = false;
+        int mp3Flags = 0;
+        if (androidExtractorOptions != null) {
+            constantBitrateSeekingEnabled = (Boolean) androidExtractorOptions.get("constantBitrateSeekingEnabled");
+            constantBitrateSeekingAlwaysEnabled = (Boolean) androidExtractorOptions.get("constantBitrateSeekingAlwaysEnabled");
+            mp3Flags = (Integer) androidExtractorOptions.get("mp3Flags");
+        }
+        extractorsFactory.setConstantBitrateSeekingEnabled(constantBitrateSeekingEnabled);
+        extractorsFactory.setConstantBitrateSeekingAlwaysEnabled(constantBitrateSeekingAlwaysEnabled);
+        extractorsFactory.setMp3ExtractorFlags(mp3Flags);
+        return extractorsFactory;
+    }
+
+    private static final class Key {
+        final String type;
+        final Map<String, String> headers;
+        final Map<?, ?> extractorOptions;
+        final boolean cached;
+        final NetworkStack.Configuration network;
+        final RetryPolicy retryPolicy;
+
+        Key(String type, Map<String, String> headers, Map<?, ?> extractorOptions, boolean cached, NetworkStack.Configuration network, RetryPolicy retryPolicy) {
+            this.type = type;
+            this.headers = headers;
+            this.extractorOptions = extractorOptions;
+            this.cached = cached;
+            this.network = network;
+            this.retryPolicy = retryPolicy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return cached == other.cached
+                    && type.equals(other.type)
+                    && Objects.equals(headers, other.headers)
+                    && Objects.equals(extractorOptions, other.extractorOptions)
+                    && Objects.equals(network, other.network)
+                    && Objects.equals(retryPolicy, other.retryPolicy);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, headers, extractorOptions, cached, network, retryPolicy);
+        }
+    }
+}
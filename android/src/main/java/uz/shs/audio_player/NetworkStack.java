@@ -0,0 +1,137 @@
+package uz.shs.audio_player;
+
+import androidx.media3.datasource.DefaultHttpDataSource;
+import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.datasource.okhttp.OkHttpDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * The HTTP stack shared by all players created by
+ * {@link MainMethodCallHandler}.
+ *
+ * By default requests go through {@link DefaultHttpDataSource}. Players can
+ * opt in to an OkHttp backend, in which case they all share one bounded
+ * connection pool with keep-alive and HTTP/2 multiplexing. Clients with
+ * different timeouts are derived from the same base client so they still
+ * share its pool and dispatcher.
+ */
+public class NetworkStack {
+    static final String BACKEND_DEFAULT = "default";
+    static final String BACKEND_OKHTTP = "okhttp";
+    static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+
+    private OkHttpClient baseClient;
+    private final Map<Configuration, OkHttpClient> clients = new HashMap<>();
+
+    // Creates an HTTP data source factory for a player's configuration,
+    // which may be null to use the defaults.
+    synchronized HttpDataSource.Factory createHttpDataSourceFactory(Configuration configuration, String userAgent) {
+        if (configuration != null && BACKEND_OKHTTP.equals(configuration.backend)) {
+            return new OkHttpDataSource.Factory(getOkHttpClient(configuration))
+                    .setUserAgent(userAgent);
+        }
+        DefaultHttpDataSource.Factory factory = new DefaultHttpDataSource.Factory()
+                .setUserAgent(userAgent)
+                .setAllowCrossProtocolRedirects(true);
+        if (configuration != null) {
+            if (configuration.connectTimeoutMs != null) {
+                factory.setConnectTimeoutMs(configuration.connectTimeoutMs);
+            }
+            if (configuration.readTimeoutMs != null) {
+                factory.setReadTimeoutMs(configuration.readTimeoutMs);
+            }
+        }
+        return factory;
+    }
+
+    private OkHttpClient getOkHttpClient(Configuration configuration) {
+        OkHttpClient client = clients.get(configuration);
+        if (client != null) return client;
+        if (baseClient == null) {
+            // The first configuration to use OkHttp sizes the shared pool.
+            baseClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(
+                            configuration.maxIdleConnections != null ? configuration.maxIdleConnections : DEFAULT_MAX_IDLE_CONNECTIONS,
+                            configuration.keepAliveDurationMs != null ? configuration.keepAliveDurationMs : DEFAULT_KEEP_ALIVE_DURATION_MS,
+                            TimeUnit.MILLISECONDS))
+                    .build();
+        }
+        OkHttpClient.Builder builder = baseClient.newBuilder();
+        if (configuration.connectTimeoutMs != null) {
+            builder.connectTimeout(configuration.connectTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        if (configuration.readTimeoutMs != null) {
+            builder.readTimeout(configuration.readTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        client = builder.build();
+        clients.put(configuration, client);
+        return client;
+    }
+
+    synchronized void release() {
+        if (baseClient != null) {
+            baseClient.connectionPool().evictAll();
+            baseClient.dispatcher().executorService().shutdown();
+            baseClient = null;
+        }
+        clients.clear();
+    }
+
+    /**
+     * A player's `androidNetworkConfiguration`. Durations arrive from Dart
+     * in microseconds.
+     */
+    static final class Configuration {
+        final String backend;
+        final Integer connectTimeoutMs;
+        final Integer readTimeoutMs;
+        final Integer maxIdleConnections;
+        final Long keepAliveDurationMs;
+
+        private Configuration(String backend, Integer connectTimeoutMs, Integer readTimeoutMs, Integer maxIdleConnections, Long keepAliveDurationMs) {
+            this.backend = backend != null ? backend : BACKEND_DEFAULT;
+            this.connectTimeoutMs = connectTimeoutMs;
+            this.readTimeoutMs = readTimeoutMs;
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveDurationMs = keepAliveDurationMs;
+        }
+
+        static Configuration fromJson(Map<?, ?> json) {
+            if (json == null) return null;
+            Long keepAliveDuration = AudioPlayer.getLong(json.get("keepAliveDuration"));
+            Long connectTimeout = AudioPlayer.getLong(json.get("connectTimeout"));
+            Long readTimeout = AudioPlayer.getLong(json.get("readTimeout"));
+            return new Configuration(
+                    (String) json.get("backend"),
+                    connectTimeout != null ? (int) (connectTimeout / 1000) : null,
+                    readTimeout != null ? (int) (readTimeout / 1000) : null,
+                    (Integer) json.get("maxIdleConnections"),
+                    keepAliveDuration != null ? keepAliveDuration / 1000 : null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Configuration)) return false;
+            Configuration other = (Configuration) o;
+            return backend.equals(other.backend)
+                    && Objects.equals(connectTimeoutMs, other.connectTimeoutMs)
+                    && Objects.equals(readTimeoutMs, other.readTimeoutMs)
+                    && Objects.equals(maxIdleConnections, other.maxIdleConnections)
+                    && Objects.equals(keepAliveDurationMs, other.keepAliveDurationMs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(backend, connectTimeoutMs, readTimeoutMs, maxIdleConnections, keepAliveDurationMs);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package uz.shs.audio_player;
+
+import androidx.media3.common.C;
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.common.audio.BaseAudioProcessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An in-process equalizer made of a cascade of peaking biquad filters, one
+ * per band, running as an {@link AudioProcessor} inside ExoPlayer's audio
+ * sink. Enabled with `androidSoftwareEqualizer` in the audio load
+ * configuration, in place of the framework `AndroidEqualizer` effect.
+ *
+ * Unlike the framework effect it isn't tied to an audio session, supports
+ * any number of bands, and its parameters are read without binder calls.
+ * Band gains may be changed from any thread. Each change is published as an
+ * immutable {@link Parameters} object and picked up by the audio thread at
+ * the next buffer, where the filter coefficients are ramped from the old to
+ * the new values across that buffer while the filter state is kept, so
+ * changes don't click. Processing itself allocates nothing. The processor
+ * is bypassed while decoding is offloaded.
+ */
+public class ParametricEqualizer extends BaseAudioProcessor {
+    static final float DEFAULT_Q = 1.41f;
+    static final float MIN_DECIBELS = -15f;
+    static final float MAX_DECIBELS = 15f;
+    static final float[] DEFAULT_CENTER_FREQUENCIES = {60f, 230f, 910f, 3600f, 14000f};
+    // Coefficients per band: b0, b1, b2, a1, a2 (normalized by a0).
+    private static final int COEFFICIENT_COUNT = 5;
+
+    private final AtomicReference<Parameters> parameters;
+
+    // Audio thread state.
+    private Parameters appliedParameters;
+    private int bandCount;
+    private float[] coefficients = new float[0];
+    private float[] coefficientSteps = new float[0];
+    private float[] targetCoefficients = new float[0];
+    // Per band and channel: z1, z2.
+    private float[] state = new float[0];
+    private boolean ramping;
+
+    // Creates an equalizer from an `androidSoftwareEqualizer` configuration,
+    // which may list bands as `{"centerFrequency": Hz, "q": q}`.
+    public ParametricEqualizer(Map<?, ?> json) {
+        List<?> rawBands = json != null ? (List<?>) json.get("bands") : null;
+        float[] frequencies;
+        float[] qs;
+        if (rawBands != null && !rawBands.isEmpty()) {
+            frequencies = new float[rawBands.size()];
+            qs = new float[rawBands.size()];
+            for (int i = 0; i < frequencies.length; i++) {
+                Map<?, ?> band = (Map<?, ?>) rawBands.get(i);
+                frequencies[i] = (float) (double) (Double) band.get("centerFrequency");
+                Double q = (Double) band.get("q");
+                qs[i] = q != null ? (float) (double) q : DEFAULT_Q;
+            }
+        } else {
+            frequencies = DEFAULT_CENTER_FREQUENCIES.clone();
+            qs = new float[frequencies.length];
+            for (int i = 0; i < qs.length; i++) {
+                qs[i] = DEFAULT_Q;
+            }
+        }
+        parameters = new AtomicReference<>(new Parameters(false, frequencies, qs, new float[frequencies.length]));
+    }
+
+    void setEnabled(boolean enabled) {
+        Parameters current;
+        do {
+            current = parameters.get();
+            if (current.enabled == enabled) return;
+        } while (!parameters.compareAndSet(current, new Parameters(enabled, current.centerFrequencies, current.qs, current.gains)));
+    }
+
+    void setBandGain(int bandIndex, float gainDecibels) {
+        float gain = Math.max(MIN_DECIBELS, Math.min(MAX_DECIBELS, gainDecibels));
+        Parameters current;
+        float[] gains;
+        do {
+            current = parameters.get();
+            gains = current.gains.clone();
+            gains[bandIndex] = gain;
+        } while (!parameters.compareAndSet(current, new Parameters(current.enabled, current.centerFrequencies, current.qs, gains)));
+    }
+
+    // Returns the parameters in the shape of the framework equalizer's
+    // `androidEqualizerGetParameters` response.
+    Map<String, Object> getParameters() {
+        Parameters current = parameters.get();
+        ArrayList<Object> rawBands = new ArrayList<>();
+        for (int i = 0; i < current.centerFrequencies.length; i++) {
+            // Band edges from the bandwidth in octaves implied by Q.
+            double octaves = 2 / Math.log(2) * asinh(1 / (2.0 * current.qs[i]));
+            double edgeRatio = Math.pow(2, octaves / 2);
+            rawBands.add(AudioPlayer.mapOf(
+                    "index", i,
+                    "lowerFrequency", current.centerFrequencies[i] / edgeRatio,
+                    "upperFrequency", current.centerFrequencies[i] * edgeRatio,
+                    "centerFrequency", (double) current.centerFrequencies[i],
+                    "gain", (double) current.gains[i]));
+        }
+        return AudioPlayer.mapOf(
+                "parameters", AudioPlayer.mapOf(
+                        "minDecibels", (double) MIN_DECIBELS,
+                        "maxDecibels", (double) MAX_DECIBELS,
+                        "bands", rawBands));
+    }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        int remaining = inputBuffer.remaining();
+        if (remaining == 0) return;
+        ByteBuffer outputBuffer = replaceOutputBuffer(remaining);
+        int channelCount = inputAudioFormat.channelCount;
+        boolean isFloat = inputAudioFormat.encoding == C.ENCODING_PCM_FLOAT;
+        int frameCount = remaining / inputAudioFormat.bytesPerFrame;
+        updateCoefficients(channelCount, frameCount);
+        if (!ramping && isFlat()) {
+            // Clear any state left over from before the bypass.
+            Arrays.fill(state, 0f);
+            outputBuffer.put(inputBuffer);
+            outputBuffer.flip();
+            return;
+        }
+        ByteBuffer input = inputBuffer.order(ByteOrder.nativeOrder());
+        for (int frame = 0; frame < frameCount; frame++) {
+            if (ramping) {
+                for (int k = 0; k < coefficients.length; k++) {
+                    coefficients[k] += coefficientSteps[k];
+                }
+            }
+            for (int channel = 0; channel < channelCount; channel++) {
+                float x = isFloat ? input.getFloat() : input.getShort() / 32768f;
+                for (int band = 0; band < bandCount; band++) {
+                    int c = band * COEFFICIENT_COUNT;
+                    int s = (band * channelCount + channel) * 2;
+                    float y = coefficients[c] * x + state[s];
+                    state[s] = coefficients[c + 1] * x - coefficients[c + 3] * y + state[s + 1];
+                    state[s + 1] = coefficients[c + 2] * x - coefficients[c + 4] * y;
+                    x = y;
+                }
+                if (isFloat) {
+                    outputBuffer.putFloat(x);
+                } else {
+                    outputBuffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(x * 32768f))));
+                }
+            }
+        }
+        if (ramping) {
+            System.arraycopy(targetCoefficients, 0, coefficients, 0, coefficients.length);
+            ramping = false;
+        }
+        outputBuffer.flip();
+    }
+
+    @Override
+    protected void onFlush() {
+        Arrays.fill(state, 0f);
+        // Start from the target without ramping after a seek or format change.
+        appliedParameters = null;
+        ramping = false;
+    }
+
+    @Override
+    protected void onReset() {
+        appliedParameters = null;
+        bandCount = 0;
+        coefficients = new float[0];
+        coefficientSteps = new float[0];
+        targetCoefficients = new float[0];
+        state = new float[0];
+        ramping = false;
+    }
+
+    // Picks up new parameters, if any, and prepares to ramp the
+    // coefficients to them over frameCount frames.
+    private void updateCoefficients(int channelCount, int frameCount) {
+        Parameters current = parameters.get();
+        if (current == appliedParameters && state.length == bandCount * channelCount * 2) return;
+        boolean rampFromCurrent = appliedParameters != null
+                && current.centerFrequencies.length == bandCount
+                && state.length == bandCount * channelCount * 2;
+        if (!rampFromCurrent) {
+            // Only reallocated when the band count or channel count changes.
+            bandCount = current.centerFrequencies.length;
+            coefficients = new float[bandCount * COEFFICIENT_COUNT];
+            coefficientSteps = new float[bandCount * COEFFICIENT_COUNT];
+            targetCoefficients = new float[bandCount * COEFFICIENT_COUNT];
+            state = new float[bandCount * channelCount * 2];
+        }
+        float sampleRate = inputAudioFormat.sampleRate;
+        for (int band = 0; band < bandCount; band++) {
+            float gain = current.enabled ? current.gains[band] : 0f;
+            computePeakingCoefficients(current.centerFrequencies[band], current.qs[band], gain, sampleRate, targetCoefficients, band * COEFFICIENT_COUNT);
+        }
+        if (rampFromCurrent && frameCount > 0) {
+            for (int k = 0; k < coefficients.length; k++) {
+                coefficientSteps[k] = (targetCoefficients[k] - coefficients[k]) / frameCount;
+            }
+            ramping = true;
+        } else {
+            System.arraycopy(targetCoefficients, 0, coefficients, 0, coefficients.length);
+        }
+        appliedParameters = current;
+    }
+
+    private boolean isFlat() {
+        Parameters current = appliedParameters;
+        if (current == null || !current.enabled) return true;
+        for (float gain : current.gains) {
+            if (gain != 0f) return false;
+        }
+        return true;
+    }
+
+    // The RBJ audio EQ cookbook peaking filter.
+    private static void computePeakingCoefficients(float frequency, float q, float gainDecibels, float sampleRate, float[] out, int offset) {
+        if (gainDecibels == 0f || frequency <= 0 || frequency >= sampleRate / 2) {
+            out[offset] = 1f;
+            out[offset + 1] = 0f;
+            out[offset + 2] = 0f;
+            out[offset + 3] = 0f;
+            out[offset + 4] = 0f;
+            return;
+        }
+        double a = Math.pow(10, gainDecibels / 40.0);
+        double w0 = 2 * Math.PI * frequency / sampleRate;
+        double cosW0 = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        double a0 = 1 + alpha / a;
+        out[offset] = (float) ((1 + alpha * a) / a0);
+        out[offset + 1] = (float) (-2 * cosW0 / a0);
+        out[offset + 2] = (float) ((1 - alpha * a) / a0);
+        out[offset + 3] = (float) (-2 * cosW0 / a0);
+        out[offset + 4] = (float) ((1 - alpha / a) / a0);
+    }
+
+    private static double asinh(double x) {
+        return Math.log(x + Math.sqrt(x * x + 1));
+    }
+
+    static final class Parameters {
+        final boolean enabled;
+        final float[] centerFrequencies;
+        final float[] qs;
+        final float[] gains;
+
+        Parameters(boolean enabled, float[] centerFrequencies, float[] qs, float[] gains) {
+            this.enabled = enabled;
+            this.centerFrequencies = centerFrequencies;
+            this.qs = qs;
+            this.gains = gains;
+        }
+    }
+}
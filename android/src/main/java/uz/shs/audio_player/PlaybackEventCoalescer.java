@@ -0,0 +1,121 @@
+package uz.shs.audio_player;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Merges bursts of playback events from player callbacks into at most one
+ * event per interval.
+ *
+ * Within an interval only the latest event is kept since each event is a
+ * full snapshot of the player state. Events that change the processing
+ * state or the current index are sent straight away, after nothing else is
+ * pending, so state transitions are never merged away.
+ *
+ * Listeners extrapolate the position as
+ * `updatePosition + speed * (now - updateTime)`, so an event is dropped,
+ * before any map is built for it, if its position is within the position
+ * tolerance of that extrapolation from the last event sent and nothing
+ * else changed, including the wall clock. This removes position ticks
+ * during steady playback.
+ *
+ * Snapshots passed in are copied, so callers may reuse them. If the
+ * player sends events in binary, they are handed to the codec as
+ * snapshots and no map is built.
+ */
+public class PlaybackEventCoalescer {
+    static final long DEFAULT_INTERVAL_MS = 16;
+    static final long DEFAULT_POSITION_TOLERANCE_MS = 50;
+
+    private final Handler handler;
+    private final BetterEventChannel eventChannel;
+    private final long intervalMs;
+    private final long positionToleranceUs;
+    private final PlayerMetrics metrics;
+    private final PlaybackEventCodec codec;
+    private final PlaybackEventSnapshot pendingEvent = new PlaybackEventSnapshot();
+    private boolean hasPendingEvent;
+    private final PlaybackEventSnapshot lastEvent = new PlaybackEventSnapshot();
+    private boolean hasLastEvent;
+    private long lastSendTime;
+    private boolean flushScheduled;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    // codec is the encoder set on eventChannel, or null if events are sent
+    // as maps.
+    public PlaybackEventCoalescer(Handler handler, BetterEventChannel eventChannel, long intervalMs, long positionToleranceMs, PlayerMetrics metrics, PlaybackEventCodec codec) {
+        this.handler = handler;
+        this.eventChannel = eventChannel;
+        this.intervalMs = intervalMs;
+        this.positionToleranceUs = positionToleranceMs * 1000;
+        this.metrics = metrics;
+        this.codec = codec;
+    }
+
+    // Sends event at the end of the current interval, replacing any event
+    // already waiting to be sent.
+    void send(PlaybackEventSnapshot event) {
+        if (intervalMs <= 0 || isStateTransition(event)) {
+            sendNow(event);
+            return;
+        }
+        if (hasPendingEvent) {
+            metrics.onEventCoalesced();
+        }
+        pendingEvent.copyFrom(event);
+        hasPendingEvent = true;
+        long delay = lastSendTime + intervalMs - SystemClock.uptimeMillis();
+        if (delay <= 0) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, delay);
+        }
+    }
+
+    // Sends event immediately, superseding any pending event.
+    void sendNow(PlaybackEventSnapshot event) {
+        if (hasPendingEvent) {
+            metrics.onEventCoalesced();
+            hasPendingEvent = false;
+        }
+        deliver(event);
+    }
+
+    // Sends the pending event, if any, immediately.
+    void flush() {
+        if (hasPendingEvent) {
+            hasPendingEvent = false;
+            deliver(pendingEvent);
+        }
+    }
+
+    private void deliver(PlaybackEventSnapshot event) {
+        cancelScheduledFlush();
+        if (hasLastEvent && event.isExtrapolatableFrom(lastEvent, positionToleranceUs)) {
+            metrics.onEventDropped();
+            return;
+        }
+        lastEvent.copyFrom(event);
+        hasLastEvent = true;
+        lastSendTime = SystemClock.uptimeMillis();
+        eventChannel.success(codec != null ? codec.obtain(event) : event.toMap());
+    }
+
+    private void cancelScheduledFlush() {
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+    }
+
+    private boolean isStateTransition(PlaybackEventSnapshot event) {
+        return !hasLastEvent || event.isStateTransitionFrom(lastEvent);
+    }
+}
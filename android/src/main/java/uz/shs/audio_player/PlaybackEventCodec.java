@@ -0,0 +1,201 @@
+package uz.shs.audio_player;
+
+import androidx.media3.extractor.metadata.icy.IcyHeaders;
+import androidx.media3.extractor.metadata.icy.IcyInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Encodes playback events into a compact little-endian byte array instead
+ * of a map with string keys.
+ *
+ * Events are encoded straight from a {@link PlaybackEventSnapshot} into a
+ * reused direct buffer holding the whole event channel message, so
+ * sending an event builds no map and allocates no byte array. Dart
+ * receives the payload as a Uint8List.
+ *
+ * Layout (codec version 2):
+ *
+ *     offset  size  field
+ *          0     1  codec version
+ *          1     1  flags (see FLAG_*)
+ *          2     1  processingState
+ *          3     1  reserved
+ *          4     8  updatePosition (us)
+ *         12     8  updateTime (ms)
+ *         20     8  bufferedPosition (us)
+ *         28     8  duration (us), valid if FLAG_HAS_DURATION
+ *         36     4  currentIndex, valid if FLAG_HAS_INDEX
+ *         40     4  androidAudioSessionId, valid if FLAG_HAS_AUDIO_SESSION_ID
+ *         44     8  updateElapsedRealtime (ms)
+ *         52     4  speed (float)
+ *         56        ICY metadata, present if FLAG_HAS_ICY_METADATA
+ *
+ * ICY metadata is only included when it differs from the last event sent,
+ * so the receiver must keep the last value it saw. It is encoded as the
+ * info title and url, then the headers bitrate, genre, name,
+ * metadataInterval, url and isPublic. Strings are a 2 byte length (-1 for
+ * null) followed by UTF-8 bytes, ints are 4 bytes with -1 for unknown, and
+ * the info and headers groups each start with a presence byte.
+ */
+public class PlaybackEventCodec implements BetterEventChannel.Encoder {
+    static final int VERSION = 2;
+    static final int FLAG_HAS_DURATION = 1;
+    static final int FLAG_HAS_INDEX = 1 << 1;
+    static final int FLAG_HAS_AUDIO_SESSION_ID = 1 << 2;
+    static final int FLAG_HAS_ICY_METADATA = 1 << 3;
+    static final int FLAG_OFFLOAD_ACTIVE = 1 << 4;
+    static final int FIXED_SIZE = 56;
+
+    // The StandardMethodCodec success envelope and the StandardMessageCodec
+    // type of a byte array.
+    private static final byte ENVELOPE_SUCCESS = 0;
+    private static final byte TYPE_BYTE_ARRAY = 8;
+    private static final int MAX_POOLED_SNAPSHOTS = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Flutter copies a message out of the buffer before send returns, so
+    // one buffer serves every event.
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(128).order(ByteOrder.LITTLE_ENDIAN);
+    private final ArrayDeque<PlaybackEventSnapshot> pool = new ArrayDeque<>();
+    private boolean icyPending = true;
+    private IcyInfo lastIcyInfo;
+    private IcyHeaders lastIcyHeaders;
+    private byte[] icyBytes;
+
+    // Returns a copy of event that stays unchanged until encode has run on
+    // the platform thread, after which it is reused. May be called from any
+    // thread.
+    PlaybackEventSnapshot obtain(PlaybackEventSnapshot event) {
+        PlaybackEventSnapshot copy;
+        synchronized (pool) {
+            copy = pool.poll();
+        }
+        if (copy == null) copy = new PlaybackEventSnapshot();
+        copy.copyFrom(event);
+        return copy;
+    }
+
+    @Override
+    public ByteBuffer encode(Object event) {
+        PlaybackEventSnapshot snapshot = (PlaybackEventSnapshot) event;
+        IcyInfo icyInfo = snapshot.getIcyInfo();
+        IcyHeaders icyHeaders = snapshot.getIcyHeaders();
+        boolean icyChanged = icyPending || icyInfo != lastIcyInfo || icyHeaders != lastIcyHeaders;
+        if (icyChanged) {
+            // Only allocates when the metadata changes.
+            icyBytes = encodeIcyMetadata(icyInfo, icyHeaders);
+            lastIcyInfo = icyInfo;
+            lastIcyHeaders = icyHeaders;
+            icyPending = false;
+        }
+        int flags = (snapshot.hasDuration ? FLAG_HAS_DURATION : 0)
+                | (snapshot.hasCurrentIndex ? FLAG_HAS_INDEX : 0)
+                | (snapshot.hasAudioSessionId ? FLAG_HAS_AUDIO_SESSION_ID : 0)
+                | (icyChanged ? FLAG_HAS_ICY_METADATA : 0)
+                | (snapshot.offloadActive ? FLAG_OFFLOAD_ACTIVE : 0);
+        int payloadSize = FIXED_SIZE + (icyChanged ? icyBytes.length : 0);
+        ensureCapacity(2 + 5 + payloadSize);
+        buffer.clear();
+        buffer.put(ENVELOPE_SUCCESS);
+        buffer.put(TYPE_BYTE_ARRAY);
+        putSize(payloadSize);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) flags);
+        buffer.put((byte) snapshot.processingState);
+        buffer.put((byte) 0);
+        buffer.putLong(snapshot.updatePosition);
+        buffer.putLong(snapshot.updateTime);
+        buffer.putLong(snapshot.bufferedPosition);
+        buffer.putLong(snapshot.hasDuration ? snapshot.duration : 0L);
+        buffer.putInt(snapshot.hasCurrentIndex ? snapshot.currentIndex : 0);
+        buffer.putInt(snapshot.hasAudioSessionId ? snapshot.audioSessionId : 0);
+        buffer.putLong(snapshot.updateElapsedRealtime);
+        buffer.putFloat(snapshot.speed);
+        if (icyChanged) {
+            buffer.put(icyBytes);
+        }
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED_SNAPSHOTS) pool.add(snapshot);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void reset() {
+        icyPending = true;
+    }
+
+    // Writes a size the way StandardMessageCodec does.
+    private void putSize(int size) {
+        if (size < 254) {
+            buffer.put((byte) size);
+        } else if (size <= 0xffff) {
+            buffer.put((byte) 254);
+            buffer.putShort((short) size);
+        } else {
+            buffer.put((byte) 255);
+            buffer.putInt(size);
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.capacity() >= size) return;
+        buffer = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, size)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] encodeIcyMetadata(IcyInfo info, IcyHeaders headers) {
+        byte[] infoTitle = null, infoUrl = null, genre = null, name = null, headersUrl = null;
+        if (info != null) {
+            infoTitle = utf8(info.title);
+            infoUrl = utf8(info.url);
+        }
+        if (headers != null) {
+            genre = utf8(headers.genre);
+            name = utf8(headers.name);
+            headersUrl = utf8(headers.url);
+        }
+        int size = 1 + (info != null ? 2 * 2 + length(infoTitle) + length(infoUrl) : 0)
+                + 1 + (headers != null ? 4 + 4 + 1 + 3 * 2 + length(genre) + length(name) + length(headersUrl) : 0);
+        ByteBuffer out = ByteBuffer.wrap(new byte[size]).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) (info != null ? 1 : 0));
+        if (info != null) {
+            putString(out, infoTitle);
+            putString(out, infoUrl);
+        }
+        out.put((byte) (headers != null ? 1 : 0));
+        if (headers != null) {
+            out.putInt(headers.bitrate);
+            putString(out, genre);
+            putString(out, name);
+            out.putInt(headers.metadataInterval);
+            putString(out, headersUrl);
+            out.put((byte) (headers.isPublic ? 1 : 0));
+        }
+        return out.array();
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putShort((short) -1);
+        } else {
+            out.putShort((short) bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static byte[] utf8(String string) {
+        if (string == null) return null;
+        byte[] bytes = string.getBytes(UTF_8);
+        // Lengths are encoded in 2 bytes.
+        return bytes.length > Short.MAX_VALUE ? Arrays.copyOf(bytes, Short.MAX_VALUE) : bytes;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+}
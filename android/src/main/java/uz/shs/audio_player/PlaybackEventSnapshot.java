@@ -0,0 +1,147 @@
+package uz.shs.audio_player;
+
+import androidx.media3.extractor.metadata.icy.IcyHeaders;
+import androidx.media3.extractor.metadata.icy.IcyInfo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A reusable, mutable copy of the state sent in a playback event.
+ *
+ * Fields are kept as primitives so that updating and comparing snapshots
+ * doesn't allocate, and the ICY metadata map is only rebuilt when the
+ * player reports new ICY info or headers. A map is only created by
+ * {@link #toMap()}, at the point an event is actually sent, and not at all
+ * when events are sent in binary.
+ */
+final class PlaybackEventSnapshot {
+    int processingState;
+    // Positions and durations are in microseconds.
+    long updatePosition;
+    // Wall clock time in ms, read at the same time as updateElapsedRealtime.
+    long updateTime;
+    long updateElapsedRealtime;
+    // The rate at which the position advances from updatePosition, which
+    // is 0 while paused or buffering.
+    float speed;
+    long bufferedPosition;
+    boolean hasDuration;
+    long duration;
+    boolean hasCurrentIndex;
+    int currentIndex;
+    boolean hasAudioSessionId;
+    int audioSessionId;
+    // Whether decoding is currently offloaded to the audio hardware.
+    boolean offloadActive;
+    private Map<String, Object> icyMetadata = Collections.emptyMap();
+    private IcyInfo icyInfo;
+    private IcyHeaders icyHeaders;
+
+    void setIcyMetadata(IcyInfo icyInfo, IcyHeaders icyHeaders) {
+        if (icyInfo == this.icyInfo && icyHeaders == this.icyHeaders) return;
+        this.icyInfo = icyInfo;
+        this.icyHeaders = icyHeaders;
+        final Map<String, Object> icyData = new HashMap<>();
+        if (icyInfo != null) {
+            final Map<String, String> info = new HashMap<>();
+            info.put("title", icyInfo.title);
+            info.put("url", icyInfo.url);
+            icyData.put("info", info);
+        }
+        if (icyHeaders != null) {
+            final Map<String, Object> headers = new HashMap<>();
+            headers.put("bitrate", icyHeaders.bitrate);
+            headers.put("genre", icyHeaders.genre);
+            headers.put("name", icyHeaders.name);
+            headers.put("metadataInterval", icyHeaders.metadataInterval);
+            headers.put("url", icyHeaders.url);
+            headers.put("isPublic", icyHeaders.isPublic);
+            icyData.put("headers", headers);
+        }
+        // Shared by every event sent until the metadata changes again.
+        icyMetadata = Collections.unmodifiableMap(icyData);
+    }
+
+    IcyInfo getIcyInfo() {
+        return icyInfo;
+    }
+
+    IcyHeaders getIcyHeaders() {
+        return icyHeaders;
+    }
+
+    void copyFrom(PlaybackEventSnapshot other) {
+        processingState = other.processingState;
+        updatePosition = other.updatePosition;
+        updateTime = other.updateTime;
+        updateElapsedRealtime = other.updateElapsedRealtime;
+        speed = other.speed;
+        bufferedPosition = other.bufferedPosition;
+        hasDuration = other.hasDuration;
+        duration = other.duration;
+        hasCurrentIndex = other.hasCurrentIndex;
+        currentIndex = other.currentIndex;
+        hasAudioSessionId = other.hasAudioSessionId;
+        audioSessionId = other.audioSessionId;
+        offloadActive = other.offloadActive;
+        icyMetadata = other.icyMetadata;
+        icyInfo = other.icyInfo;
+        icyHeaders = other.icyHeaders;
+    }
+
+    // Whether a listener that received other could already extrapolate
+    // this event's position to within toleranceUs, with nothing else
+    // changed. Identical events are always extrapolatable. Listeners
+    // extrapolate from the wall clock, so an event isn't if the wall clock
+    // was set in between.
+    boolean isExtrapolatableFrom(PlaybackEventSnapshot other, long toleranceUs) {
+        if (!equalsIgnoringPosition(other)) return false;
+        long clockShiftMs = (updateTime - updateElapsedRealtime) - (other.updateTime - other.updateElapsedRealtime);
+        if (Math.abs(clockShiftMs) * 1000 > toleranceUs) return false;
+        long elapsedMs = updateElapsedRealtime - other.updateElapsedRealtime;
+        long predictedPosition = other.updatePosition + (long) (other.speed * elapsedMs * 1000);
+        return Math.abs(predictedPosition - updatePosition) <= toleranceUs;
+    }
+
+    private boolean equalsIgnoringPosition(PlaybackEventSnapshot other) {
+        return processingState == other.processingState
+                && speed == other.speed
+                && bufferedPosition == other.bufferedPosition
+                && hasDuration == other.hasDuration
+                && (!hasDuration || duration == other.duration)
+                && isSameIndex(other)
+                && hasAudioSessionId == other.hasAudioSessionId
+                && (!hasAudioSessionId || audioSessionId == other.audioSessionId)
+                && offloadActive == other.offloadActive
+                && (icyMetadata == other.icyMetadata || icyMetadata.equals(other.icyMetadata));
+    }
+
+    // Whether this event moves to a different processing state or item
+    // than other.
+    boolean isStateTransitionFrom(PlaybackEventSnapshot other) {
+        return processingState != other.processingState || !isSameIndex(other);
+    }
+
+    Map<String, Object> toMap() {
+        final Map<String, Object> event = new HashMap<>();
+        event.put("processingState", processingState);
+        event.put("updatePosition", updatePosition);
+        event.put("updateTime", updateTime);
+        event.put("updateElapsedRealtime", updateElapsedRealtime);
+        event.put("speed", (double) speed);
+        event.put("bufferedPosition", bufferedPosition);
+        event.put("icyMetadata", icyMetadata);
+        event.put("duration", hasDuration ? duration : null);
+        event.put("currentIndex", hasCurrentIndex ? currentIndex : null);
+        event.put("androidAudioSessionId", hasAudioSessionId ? audioSessionId : null);
+        event.put("androidOffloadActive", offloadActive);
+        return event;
+    }
+
+    private boolean isSameIndex(PlaybackEventSnapshot other) {
+        return hasCurrentIndex == other.hasCurrentIndex
+                && (!hasCurrentIndex || currentIndex == other.currentIndex);
+    }
+}
@@ -0,0 +1,110 @@
+package uz.shs.audio_player;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the loopers that players run ExoPlayer on.
+ *
+ * By default players use the main looper. A player can instead get a
+ * dedicated playback thread, or one from a small pool shared round-robin
+ * between players, so that player callbacks and event construction don't
+ * compete with Flutter UI frames.
+ *
+ * It also owns the small executor that players opting in to eager
+ * initialization are built on, so that creating many players at once
+ * doesn't start a thread for each.
+ */
+public class PlaybackThreads {
+    static final String MODE_MAIN = "main";
+    static final String MODE_DEDICATED = "dedicated";
+    static final String MODE_SHARED = "shared";
+    static final int SHARED_THREAD_COUNT = 2;
+    static final int INIT_THREAD_COUNT = 2;
+    static final int INIT_QUEUE_CAPACITY = 16;
+
+    private final List<HandlerThread> sharedThreads = new ArrayList<>();
+    private int nextSharedThread;
+    private ExecutorService initExecutor;
+
+    // Returns the looper for a player using the given mode, which may be
+    // null for the main looper.
+    synchronized Looper acquire(String mode, String playerId) {
+        if (MODE_DEDICATED.equals(mode)) {
+            return startThread("AudioPlayer:" + playerId).getLooper();
+        } else if (MODE_SHARED.equals(mode)) {
+            if (sharedThreads.size() < SHARED_THREAD_COUNT) {
+                sharedThreads.add(startThread("AudioPlayer:shared" + sharedThreads.size()));
+            }
+            HandlerThread thread = sharedThreads.get(nextSharedThread);
+            nextSharedThread = (nextSharedThread + 1) % SHARED_THREAD_COUNT;
+            return thread.getLooper();
+        }
+        return Looper.getMainLooper();
+    }
+
+    // Called once a player has been released on looper. Dedicated threads
+    // are stopped while shared threads live until release().
+    synchronized void onPlayerReleased(Looper looper) {
+        if (isDedicated(looper)) {
+            looper.quitSafely();
+        }
+    }
+
+    // Whether looper belongs to a dedicated thread that stops when its
+    // player is released.
+    synchronized boolean isDedicated(Looper looper) {
+        if (looper == Looper.getMainLooper()) return false;
+        for (HandlerThread thread : sharedThreads) {
+            if (thread.getLooper() == looper) return false;
+        }
+        return true;
+    }
+
+    // The executor that players are built on ahead of their first method
+    // call. Builds beyond the queue capacity are rejected, and those players
+    // are built on their first call instead.
+    synchronized ExecutorService getInitExecutor() {
+        if (initExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    INIT_THREAD_COUNT, INIT_THREAD_COUNT,
+                    30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(INIT_QUEUE_CAPACITY),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "AudioPlayer:init");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            initExecutor = executor;
+        }
+        return initExecutor;
+    }
+
+    synchronized void release() {
+        for (HandlerThread thread : sharedThreads) {
+            thread.quitSafely();
+        }
+        sharedThreads.clear();
+        nextSharedThread = 0;
+        // Queued builds still run so that nothing waiting on them hangs.
+        if (initExecutor != null) {
+            initExecutor.shutdown();
+            initExecutor = null;
+        }
+    }
+
+    private static HandlerThread startThread(String name) {
+        HandlerThread thread = new HandlerThread(name, Process.THREAD_PRIORITY_AUDIO);
+        thread.start();
+        return thread;
+    }
+}
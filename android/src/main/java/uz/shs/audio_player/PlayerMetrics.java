@@ -0,0 +1,261 @@
+package uz.shs.audio_player;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.Player;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and throughput metrics for one player, enabled with
+ * `androidMetrics` in the audio load configuration.
+ *
+ * Recording only touches atomics so that it is safe from any thread and
+ * never blocks the playback thread. When disabled, every record method
+ * returns after a single field read and no player listener is registered.
+ * Snapshots are returned by the `getMetrics` method call and, if a snapshot
+ * interval is configured, sent periodically on the data channel as
+ * `{"type": "metrics", ...}`.
+ */
+public class PlayerMetrics implements AnalyticsListener {
+    private final boolean enabled;
+    private final Handler handler;
+    private final BetterEventChannel dataEventChannel;
+    private final long snapshotIntervalMs;
+
+    private final Histogram loadToReady = new Histogram();
+    private final Histogram seekToReady = new Histogram();
+    private final Histogram rebufferDuration = new Histogram();
+    private final AtomicLong rebufferCount = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong bandwidthEstimate = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong coalescedEvents = new AtomicLong();
+    private final ConcurrentHashMap<String, Histogram> methodCalls = new ConcurrentHashMap<>();
+    // Cold start: how long building the ExoPlayer took wherever it ran, how
+    // long getting it ready took on the playback thread, and how long the
+    // first method call waited for it. -1 until known.
+    private final AtomicLong playerBuildTime = new AtomicLong(-1);
+    private final AtomicLong playerInitTime = new AtomicLong(-1);
+    private final AtomicLong firstCallWait = new AtomicLong(-1);
+    private volatile String playerSource;
+
+    // Start times of the intervals being measured, only touched on the
+    // playback thread. 0 means not started.
+    private long loadStartTime;
+    private long seekStartTime;
+    private long rebufferStartTime;
+    private int playbackState = Player.STATE_IDLE;
+    private final Runnable snapshotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Map<String, Object> event = snapshot();
+            event.put("type", "metrics");
+            dataEventChannel.success(event);
+            handler.postDelayed(this, snapshotIntervalMs);
+        }
+    };
+
+    // Creates metrics from a player's `androidMetrics` configuration, which
+    // may be null to disable them.
+    public PlayerMetrics(Map<?, ?> configuration, Handler handler, BetterEventChannel dataEventChannel) {
+        this.enabled = configuration != null;
+        this.handler = handler;
+        this.dataEventChannel = dataEventChannel;
+        Long snapshotInterval = configuration != null ? AudioPlayer.getLong(configuration.get("snapshotInterval")) : null;
+        this.snapshotIntervalMs = snapshotInterval != null ? snapshotInterval / 1000 : 0;
+        if (enabled && snapshotIntervalMs > 0) {
+            handler.postDelayed(snapshotRunnable, snapshotIntervalMs);
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void onLoadStarted() {
+        if (!enabled) return;
+        loadStartTime = SystemClock.elapsedRealtime();
+        seekStartTime = 0;
+        rebufferStartTime = 0;
+    }
+
+    void onSeekStarted() {
+        if (!enabled) return;
+        seekStartTime = SystemClock.elapsedRealtime();
+        rebufferStartTime = 0;
+    }
+
+    void onSeekCompleted() {
+        if (!enabled || seekStartTime == 0) return;
+        seekToReady.record(SystemClock.elapsedRealtime() - seekStartTime);
+        seekStartTime = 0;
+    }
+
+    void recordMethodCall(String method, long durationNs) {
+        if (!enabled) return;
+        Histogram histogram = methodCalls.get(method);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = methodCalls.putIfAbsent(method, newHistogram);
+            if (histogram == null) histogram = newHistogram;
+        }
+        histogram.record(durationNs / 1000);
+    }
+
+    // eager means the player was built in the background ahead of use, and
+    // pooled that it was reused from another player.
+    void onPlayerInitialized(long buildTimeMs, long initTimeMs, boolean eager, boolean pooled) {
+        if (!enabled) return;
+        playerBuildTime.set(pooled ? 0 : buildTimeMs);
+        playerInitTime.set(initTimeMs);
+        playerSource = pooled ? "pool" : eager ? "eager" : "lazy";
+    }
+
+    void onFirstCall(long waitTimeMs) {
+        if (!enabled) return;
+        firstCallWait.set(waitTimeMs);
+    }
+
+    void onEventDropped() {
+        if (!enabled) return;
+        droppedEvents.incrementAndGet();
+    }
+
+    void onEventCoalesced() {
+        if (!enabled) return;
+        coalescedEvents.incrementAndGet();
+    }
+
+    void release() {
+        handler.removeCallbacks(snapshotRunnable);
+    }
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        long now = SystemClock.elapsedRealtime();
+        if (state == Player.STATE_READY) {
+            if (loadStartTime != 0) {
+                loadToReady.record(now - loadStartTime);
+                loadStartTime = 0;
+            }
+            if (rebufferStartTime != 0) {
+                rebufferDuration.record(now - rebufferStartTime);
+                rebufferStartTime = 0;
+            }
+        } else if (state == Player.STATE_BUFFERING && playbackState == Player.STATE_READY
+                && loadStartTime == 0 && seekStartTime == 0) {
+            rebufferCount.incrementAndGet();
+            rebufferStartTime = now;
+        } else if (state == Player.STATE_IDLE || state == Player.STATE_ENDED) {
+            seekStartTime = 0;
+            rebufferStartTime = 0;
+        }
+        playbackState = state;
+    }
+
+    @Override
+    public void onLoadCompleted(@NonNull EventTime eventTime, @NonNull LoadEventInfo loadEventInfo, @NonNull MediaLoadData mediaLoadData) {
+        bytesDownloaded.addAndGet(loadEventInfo.bytesLoaded);
+    }
+
+    @Override
+    public void onBandwidthEstimate(@NonNull EventTime eventTime, int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+        bandwidthEstimate.set(bitrateEstimate);
+    }
+
+    // Durations are in milliseconds except method calls, which are in
+    // microseconds.
+    Map<String, Object> snapshot() {
+        Map<String, Object> methods = new HashMap<>();
+        for (Map.Entry<String, Histogram> entry : methodCalls.entrySet()) {
+            methods.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return AudioPlayer.mapOf(
+                "enabled", enabled,
+                "loadToReady", loadToReady.snapshot(),
+                "seekToReady", seekToReady.snapshot(),
+                "rebufferCount", rebufferCount.get(),
+                "rebufferDuration", rebufferDuration.snapshot(),
+                "bytesDownloaded", bytesDownloaded.get(),
+                "bandwidthEstimate", bandwidthEstimate.get(),
+                "droppedEvents", droppedEvents.get(),
+                "coalescedEvents", coalescedEvents.get(),
+                "methodCalls", methods,
+                // The cold start cost saved is playerBuildTime minus
+                // firstCallWait.
+                "playerSource", playerSource,
+                "playerBuildTime", playerBuildTime.get(),
+                "playerInitTime", playerInitTime.get(),
+                "firstCallWait", firstCallWait.get());
+    }
+
+    /**
+     * A lock-free histogram with power of two buckets. Bucket i counts values
+     * in [2^(i-1), 2^i), and bucket 0 counts values below 1.
+     */
+    static final class Histogram {
+        static final int BUCKET_COUNT = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long currentMax;
+            do {
+                currentMax = max.get();
+            } while (value > currentMax && !max.compareAndSet(currentMax, value));
+        }
+
+        // Percentiles are the upper bounds of the buckets they fall in.
+        Map<String, Object> snapshot() {
+            long[] counts = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            List<Long> bucketList = new ArrayList<>(BUCKET_COUNT);
+            for (long c : counts) {
+                bucketList.add(c);
+            }
+            return AudioPlayer.mapOf(
+                    "count", count.get(),
+                    "sum", sum.get(),
+                    "max", max.get(),
+                    "p50", percentile(counts, total, 0.5),
+                    "p90", percentile(counts, total, 0.9),
+                    "p99", percentile(counts, total, 0.99),
+                    "buckets", bucketList);
+        }
+
+        private static long percentile(long[] counts, long total, double fraction) {
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return 1L << i;
+            }
+            return 1L << (counts.length - 1);
+        }
+    }
+}
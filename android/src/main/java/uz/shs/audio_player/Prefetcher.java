@@ -0,0 +1,132 @@
+package uz.shs.audio_player;
+
+import android.net.Uri;
+import android.os.Handler;
+
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Warms the shared {@link MediaCache} with the first bytes of upcoming
+ * sources so that skipping to them doesn't wait on the network.
+ *
+ * Jobs run on the cache's prefetch executor and report progress on the
+ * player's data channel. All bookkeeping happens on the player's handler
+ * thread.
+ */
+public class Prefetcher {
+    static final long DEFAULT_MAX_BYTES = 512 * 1024;
+    // Minimum number of newly cached bytes between progress events.
+    private static final long PROGRESS_INTERVAL_BYTES = 64 * 1024;
+
+    private final Handler handler;
+    private final BetterEventChannel dataEventChannel;
+    private final MediaCache mediaCache;
+    private final List<PrefetchJob> jobs = new ArrayList<>();
+
+    public Prefetcher(Handler handler, BetterEventChannel dataEventChannel, MediaCache mediaCache) {
+        this.handler = handler;
+        this.dataEventChannel = dataEventChannel;
+        this.mediaCache = mediaCache;
+    }
+
+    // Caches up to maxBytes from the start of uri. The budget is in bytes
+    // rather than time since a progressive source can't be mapped from time
+    // to bytes until it has been fetched and parsed, which is the work this
+    // is meant to get ahead of.
+    void prefetch(String id, Uri uri, DataSource.Factory upstreamFactory, Map<String, String> headers, long maxBytes) {
+        DataSpec dataSpec = new DataSpec.Builder()
+                .setUri(uri)
+                .setLength(maxBytes)
+                .setFlags(DataSpec.FLAG_DONT_CACHE_IF_LENGTH_UNKNOWN)
+                .build();
+        PrefetchJob job = new PrefetchJob(id, dataSpec, upstreamFactory, headers);
+        try {
+            job.future = mediaCache.getPrefetchExecutor().submit(job);
+            jobs.add(job);
+        } catch (RejectedExecutionException e) {
+            sendEvent(job, "error", "Prefetch queue is full");
+        }
+    }
+
+    void cancel() {
+        for (PrefetchJob job : jobs) {
+            job.cancel();
+            sendEvent(job, "cancelled", null);
+        }
+        jobs.clear();
+    }
+
+    private void sendEvent(PrefetchJob job, String state, String error) {
+        dataEventChannel.success(AudioPlayer.mapOf(
+                "type", "prefetch",
+                "id", job.id,
+                "state", state,
+                "bytesCached", job.bytesCached,
+                "requestLength", job.requestLength,
+                "error", error));
+    }
+
+    private void postEvent(final PrefetchJob job, final String state, final String error, final boolean finished) {
+        handler.post(() -> {
+            // Cancelled jobs have already been reported.
+            if (!jobs.contains(job)) return;
+            if (finished) jobs.remove(job);
+            sendEvent(job, state, error);
+        });
+    }
+
+    private final class PrefetchJob implements Runnable, CacheWriter.ProgressListener {
+        final String id;
+        final CacheWriter cacheWriter;
+        Future<?> future;
+        volatile long bytesCached;
+        volatile long requestLength;
+        private long reportedBytes;
+
+        PrefetchJob(String id, DataSpec dataSpec, DataSource.Factory upstreamFactory, Map<String, String> headers) {
+            this.id = id;
+            this.cacheWriter = new CacheWriter(
+                    mediaCache.buildRawCacheDataSourceFactory(upstreamFactory, headers).createDataSource(),
+                    dataSpec,
+                    null,
+                    this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                cacheWriter.cache();
+                postEvent(this, "completed", null, true);
+            } catch (InterruptedIOException e) {
+                // Cancelled.
+            } catch (IOException | RuntimeException e) {
+                postEvent(this, "error", e.getMessage(), true);
+            }
+        }
+
+        @Override
+        public void onProgress(long requestLength, long bytesCached, long newBytesCached) {
+            this.requestLength = requestLength;
+            this.bytesCached = bytesCached;
+            if (bytesCached - reportedBytes >= PROGRESS_INTERVAL_BYTES) {
+                reportedBytes = bytesCached;
+                postEvent(this, "progress", null, false);
+            }
+        }
+
+        void cancel() {
+            cacheWriter.cancel();
+            if (future != null) future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.exoplayer.DefaultRenderersFactory;
+import androidx.media3.exoplayer.audio.AudioSink;
+import androidx.media3.exoplayer.audio.DefaultAudioSink;
+
+/**
+ * A {@link DefaultRenderersFactory} whose audio sink runs the player's own
+ * {@link AudioProcessor}s, in order, after ExoPlayer's built-in processing.
+ */
+public class ProcessingRenderersFactory extends DefaultRenderersFactory {
+    private final AudioProcessor[] audioProcessors;
+
+    public ProcessingRenderersFactory(Context context, AudioProcessor[] audioProcessors) {
+        super(context);
+        this.audioProcessors = audioProcessors;
+    }
+
+    @Override
+    protected AudioSink buildAudioSink(Context context, boolean enableFloatOutput, boolean enableAudioTrackPlaybackParams) {
+        return new DefaultAudioSink.Builder(context)
+                .setEnableFloatOutput(enableFloatOutput)
+                .setEnableAudioTrackPlaybackParams(enableAudioTrackPlaybackParams)
+                .setAudioProcessors(audioProcessors)
+                .build();
+    }
+}
@@ -0,0 +1,142 @@
+package uz.shs.audio_player;
+
+import androidx.media3.common.ParserException;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.exoplayer.ExoPlaybackException;
+import androidx.media3.exoplayer.upstream.DefaultLoadErrorHandlingPolicy;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when and how soon failed loads and playback errors are retried,
+ * configured by `androidRetryPolicy` in the audio load configuration.
+ *
+ * As a {@link DefaultLoadErrorHandlingPolicy} it is set on every media
+ * source factory, so transient network errors (timeouts, dropped
+ * connections, 408/429/5xx responses) are retried by the loader for the
+ * affected chunk with exponential backoff and jitter, and other errors
+ * fall back to Media3's defaults. Only errors that survive those retries
+ * reach the player, where {@link #getPlayerRetryAction} decides whether to
+ * resume the current item, skip it, or give up.
+ *
+ * Instances with the same configuration are equal so that players can
+ * share media source factories.
+ */
+public class RetryPolicy extends DefaultLoadErrorHandlingPolicy {
+    static final int DEFAULT_MAX_LOAD_RETRIES = 6;
+    static final long DEFAULT_INITIAL_DELAY_MS = 500;
+    static final long DEFAULT_MAX_DELAY_MS = 16 * 1000;
+    static final double DEFAULT_JITTER = 0.2;
+    static final int DEFAULT_MAX_PLAYER_RETRIES = 3;
+
+    static final int ACTION_GIVE_UP = 0;
+    static final int ACTION_RESUME = 1;
+    static final int ACTION_SKIP = 2;
+
+    private final int maxLoadRetries;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final double jitter;
+    private final int maxPlayerRetries;
+
+    private RetryPolicy(int maxLoadRetries, long initialDelayMs, long maxDelayMs, double jitter, int maxPlayerRetries) {
+        super(maxLoadRetries);
+        this.maxLoadRetries = maxLoadRetries;
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.jitter = jitter;
+        this.maxPlayerRetries = maxPlayerRetries;
+    }
+
+    // Durations arrive from Dart in microseconds. A null json gives the
+    // default policy.
+    static RetryPolicy fromJson(Map<?, ?> json) {
+        if (json == null) {
+            return new RetryPolicy(DEFAULT_MAX_LOAD_RETRIES, DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_JITTER, DEFAULT_MAX_PLAYER_RETRIES);
+        }
+        Integer maxLoadRetries = (Integer) json.get("maxLoadRetries");
+        Long initialDelay = AudioPlayer.getLong(json.get("initialDelay"));
+        Long maxDelay = AudioPlayer.getLong(json.get("maxDelay"));
+        Double jitter = (Double) json.get("jitter");
+        Integer maxPlayerRetries = (Integer) json.get("maxPlayerRetries");
+        return new RetryPolicy(
+                maxLoadRetries != null ? maxLoadRetries : DEFAULT_MAX_LOAD_RETRIES,
+                initialDelay != null ? initialDelay / 1000 : DEFAULT_INITIAL_DELAY_MS,
+                maxDelay != null ? maxDelay / 1000 : DEFAULT_MAX_DELAY_MS,
+                jitter != null ? Math.max(0, Math.min(1, jitter)) : DEFAULT_JITTER,
+                maxPlayerRetries != null ? maxPlayerRetries : DEFAULT_MAX_PLAYER_RETRIES);
+    }
+
+    @Override
+    public long getRetryDelayMsFor(LoadErrorInfo loadErrorInfo) {
+        if (!isTransient(loadErrorInfo.exception)) {
+            return super.getRetryDelayMsFor(loadErrorInfo);
+        }
+        return getBackoffDelayMs(loadErrorInfo.errorCount);
+    }
+
+    // Returns the delay before the given attempt, counting from 1: the
+    // initial delay doubled per attempt, capped at the max delay, and
+    // randomized by up to the jitter fraction either way.
+    long getBackoffDelayMs(int attempt) {
+        int shift = Math.max(0, Math.min(attempt - 1, 30));
+        long delay = Math.min(maxDelayMs, initialDelayMs << shift);
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(0, Math.round(delay * factor));
+    }
+
+    // Decides how to recover from a playback error after errorCount errors
+    // on the current item. Source errors from transient network failures
+    // resume the item where it stopped, other source and renderer errors
+    // skip to the next item, and anything else is not retried.
+    int getPlayerRetryAction(PlaybackException error, int errorCount) {
+        if (errorCount > maxPlayerRetries) return ACTION_GIVE_UP;
+        if (!(error instanceof ExoPlaybackException)) return ACTION_GIVE_UP;
+        ExoPlaybackException exoError = (ExoPlaybackException) error;
+        switch (exoError.type) {
+            case ExoPlaybackException.TYPE_SOURCE:
+                return isTransient(exoError.getSourceException()) ? ACTION_RESUME : ACTION_SKIP;
+            case ExoPlaybackException.TYPE_RENDERER:
+                return ACTION_SKIP;
+            default:
+                return ACTION_GIVE_UP;
+        }
+    }
+
+    private static boolean isTransient(IOException e) {
+        if (e instanceof ParserException || e instanceof FileNotFoundException) {
+            return false;
+        }
+        if (e instanceof HttpDataSource.InvalidResponseCodeException) {
+            int responseCode = ((HttpDataSource.InvalidResponseCodeException) e).responseCode;
+            return responseCode == 408 || responseCode == 429 || responseCode >= 500;
+        }
+        if (e instanceof HttpDataSource.CleartextNotPermittedException) {
+            return false;
+        }
+        // Connection failures, timeouts and dropped connections.
+        return e instanceof HttpDataSource.HttpDataSourceException;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RetryPolicy)) return false;
+        RetryPolicy other = (RetryPolicy) o;
+        return maxLoadRetries == other.maxLoadRetries
+                && initialDelayMs == other.initialDelayMs
+                && maxDelayMs == other.maxDelayMs
+                && jitter == other.jitter
+                && maxPlayerRetries == other.maxPlayerRetries;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxLoadRetries, initialDelayMs, maxDelayMs, jitter, maxPlayerRetries);
+    }
+}
@@ -0,0 +1,216 @@
+package uz.shs.audio_player;
+
+import androidx.media3.common.C;
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.common.audio.BaseAudioProcessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A spectrum visualizer fed from inside ExoPlayer's audio sink, enabled with
+ * `androidVisualizer` in the audio load configuration. Unlike the framework
+ * Visualizer effect it needs no RECORD_AUDIO permission and no audio
+ * session.
+ *
+ * As an {@link AudioProcessor} it passes audio through unchanged while
+ * writing a mono mix into a preallocated single-producer ring buffer, so the
+ * audio thread never allocates, locks or waits. A consumer thread wakes at
+ * the configured frame rate, copies the latest `fftSize` samples, discards
+ * the copy if the audio thread lapped it meanwhile, and sends the FFT
+ * magnitudes on the player's data channel as `{"type": "visualizer",
+ * "sampleRate": Hz, "fft": Float32List}` with `fftSize / 2` amplitudes from
+ * 0 Hz upwards. No frames are sent while no new audio arrives, such as when
+ * paused. Audio is seen ahead of the output by the sink's buffer, so frames
+ * lead what is heard by that much.
+ */
+public class VisualizerTap extends BaseAudioProcessor {
+    static final int DEFAULT_FFT_SIZE = 1024;
+    static final int MIN_FFT_SIZE = 64;
+    static final int MAX_FFT_SIZE = 8192;
+    static final double DEFAULT_FRAME_RATE = 30;
+
+    private final BetterEventChannel dataEventChannel;
+    private final int fftSize;
+    private final long frameIntervalNs;
+    // The ring holds several windows so that a copy is rarely lapped.
+    private final float[] ring;
+    private final int ringMask;
+    // Total samples written. Published with lazySet after every fftSize
+    // samples, so that however large an input buffer is, at most fftSize
+    // written samples are unpublished.
+    private final AtomicLong writeIndex = new AtomicLong();
+    private volatile int sampleRate;
+    private Thread consumer;
+
+    // Creates a tap from an `androidVisualizer` configuration, which may
+    // set `fftSize` (rounded to a power of two) and `frameRate` in Hz.
+    public VisualizerTap(Map<?, ?> json, BetterEventChannel dataEventChannel) {
+        this.dataEventChannel = dataEventChannel;
+        Integer fftSize = json != null ? (Integer) json.get("fftSize") : null;
+        Double frameRate = json != null ? (Double) json.get("frameRate") : null;
+        int size = Math.max(MIN_FFT_SIZE, Math.min(MAX_FFT_SIZE, fftSize != null ? fftSize : DEFAULT_FFT_SIZE));
+        this.fftSize = Integer.highestOneBit(size);
+        this.frameIntervalNs = (long) (1e9 / (frameRate != null && frameRate > 0 ? frameRate : DEFAULT_FRAME_RATE));
+        this.ring = new float[this.fftSize * 4];
+        this.ringMask = ring.length - 1;
+    }
+
+    synchronized void start() {
+        if (consumer != null) return;
+        consumer = new Thread(new Consumer(), "AudioPlayerVisualizer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    synchronized void stop() {
+        if (consumer == null) return;
+        consumer.interrupt();
+        consumer = null;
+    }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        int remaining = inputBuffer.remaining();
+        if (remaining == 0) return;
+        int channelCount = inputAudioFormat.channelCount;
+        boolean isFloat = inputAudioFormat.encoding == C.ENCODING_PCM_FLOAT;
+        int frameCount = remaining / inputAudioFormat.bytesPerFrame;
+        // Absolute reads leave the input to be copied below.
+        ByteBuffer input = inputBuffer.order(ByteOrder.nativeOrder());
+        int position = input.position();
+        int bytesPerSample = isFloat ? 4 : 2;
+        long index = writeIndex.get();
+        float scale = 1f / channelCount;
+        for (int frame = 0; frame < frameCount; frame++) {
+            float sum = 0;
+            for (int channel = 0; channel < channelCount; channel++) {
+                sum += isFloat ? input.getFloat(position) : input.getShort(position) / 32768f;
+                position += bytesPerSample;
+            }
+            ring[(int) (index++ & ringMask)] = sum * scale;
+            if ((index & (fftSize - 1)) == 0) writeIndex.lazySet(index);
+        }
+        writeIndex.lazySet(index);
+        ByteBuffer outputBuffer = replaceOutputBuffer(remaining);
+        outputBuffer.put(inputBuffer);
+        outputBuffer.flip();
+    }
+
+    @Override
+    protected void onFlush() {
+        sampleRate = inputAudioFormat.sampleRate;
+    }
+
+    @Override
+    protected void onReset() {
+        sampleRate = 0;
+    }
+
+    /**
+     * Computes and sends frames. All working arrays are allocated up front;
+     * only the array sent with each frame is new.
+     */
+    private final class Consumer implements Runnable {
+        private final float[] window = new float[fftSize];
+        private final float[] hann = new float[fftSize];
+        private final float[] real = new float[fftSize];
+        private final float[] imag = new float[fftSize];
+        private final float[] cos = new float[fftSize / 2];
+        private final float[] sin = new float[fftSize / 2];
+        private final int[] bitReversed = new int[fftSize];
+
+        Consumer() {
+            int bits = Integer.numberOfTrailingZeros(fftSize);
+            for (int i = 0; i < fftSize; i++) {
+                hann[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (fftSize - 1)));
+                bitReversed[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+            for (int i = 0; i < fftSize / 2; i++) {
+                cos[i] = (float) Math.cos(2 * Math.PI * i / fftSize);
+                sin[i] = (float) -Math.sin(2 * Math.PI * i / fftSize);
+            }
+        }
+
+        @Override
+        public void run() {
+            long lastIndex = -1;
+            long nextFrameTime = System.nanoTime();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    nextFrameTime += frameIntervalNs;
+                    long delayNs = nextFrameTime - System.nanoTime();
+                    if (delayNs > 0) {
+                        Thread.sleep(delayNs / 1000000, (int) (delayNs % 1000000));
+                    } else {
+                        // Fell behind, so skip the missed frames.
+                        nextFrameTime = System.nanoTime();
+                    }
+                    long index = writeIndex.get();
+                    if (index == lastIndex || index < fftSize || sampleRate <= 0) continue;
+                    lastIndex = index;
+                    for (int i = 0; i < fftSize; i++) {
+                        window[i] = ring[(int) ((index - fftSize + i) & ringMask)];
+                    }
+                    // The audio thread may have overwritten the window while
+                    // it was copied. Up to fftSize samples past the published
+                    // index may already be written, so the window is only
+                    // intact if the writer is that much short of lapping it.
+                    if (writeIndex.get() - index > ring.length - 2 * fftSize) continue;
+                    dataEventChannel.success(AudioPlayer.mapOf(
+                            "type", "visualizer",
+                            "sampleRate", sampleRate,
+                            "fft", computeMagnitudes()));
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            }
+        }
+
+        // A radix-2 FFT of the windowed samples, returning the amplitude of
+        // each bin up to the Nyquist frequency.
+        private float[] computeMagnitudes() {
+            int n = fftSize;
+            for (int i = 0; i < n; i++) {
+                real[bitReversed[i]] = window[i] * hann[i];
+                imag[i] = 0;
+            }
+            for (int size = 2; size <= n; size <<= 1) {
+                int half = size >> 1;
+                int step = n / size;
+                for (int start = 0; start < n; start += size) {
+                    for (int k = 0; k < half; k++) {
+                        float wr = cos[k * step];
+                        float wi = sin[k * step];
+                        int even = start + k;
+                        int odd = even + half;
+                        float tr = wr * real[odd] - wi * imag[odd];
+                        float ti = wr * imag[odd] + wi * real[odd];
+                        real[odd] = real[even] - tr;
+                        imag[odd] = imag[even] - ti;
+                        real[even] += tr;
+                        imag[even] += ti;
+                    }
+                }
+            }
+            // Scaled so that a full scale sine gives an amplitude of 1,
+            // allowing for the Hann window's gain of 0.5.
+            float[] magnitudes = new float[n / 2];
+            float scale = 4f / n;
+            for (int i = 0; i < n / 2; i++) {
+                magnitudes[i] = (float) Math.sqrt(real[i] * real[i] + imag[i] * imag[i]) * scale;
+            }
+            return magnitudes;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+
+import io.flutter.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A disk cache of extracted waveforms shared by every player in the
+ * process, across all Flutter engines, together with the background
+ * executor that extracts them. Each {@link MainMethodCallHandler} acquires
+ * a reference to the single instance, which is closed with the last
+ * reference.
+ *
+ * Each waveform is a file in the app's cache directory named by a hash of
+ * the source's key and the resolution, holding the key, to tell hashes that
+ * collide apart, then the duration and the min/max pairs of every bucket as
+ * floats. The least recently written files are deleted once the directory
+ * exceeds {@link #MAX_SIZE}.
+ */
+public class WaveformCache {
+    static final String CACHE_DIRECTORY = "audio_player_waveforms";
+    static final long MAX_SIZE = 32L * 1024 * 1024;
+    private static final int MAGIC = 0x57415632; // "WAV2"
+
+    private static WaveformCache instance;
+    private static int referenceCount;
+
+    private final File directory;
+    private ExecutorService executor;
+    private ExecutorService readExecutor;
+    private boolean released;
+
+    private WaveformCache(Context applicationContext) {
+        this.directory = new File(applicationContext.getCacheDir(), CACHE_DIRECTORY);
+    }
+
+    // Returns the process-wide cache. Each call must be balanced by a call
+    // to release.
+    static WaveformCache acquire(Context applicationContext) {
+        synchronized (WaveformCache.class) {
+            if (instance == null) {
+                instance = new WaveformCache(applicationContext);
+            }
+            referenceCount++;
+            return instance;
+        }
+    }
+
+    // Drops a reference from acquire, closing the cache with the last one.
+    void release() {
+        synchronized (WaveformCache.class) {
+            if (instance != this || --referenceCount > 0) return;
+            instance = null;
+            close();
+        }
+    }
+
+    // Identifies a source by its URI and request headers, since headers such
+    // as authorization can select different content at the same URI.
+    static String key(Uri uri, Map<String, String> headers) {
+        if (headers == null || headers.isEmpty()) return uri.toString();
+        StringBuilder key = new StringBuilder(uri.toString());
+        for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+            key.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+        }
+        return key.toString();
+    }
+
+    // Decoding is CPU heavy, so waveforms are extracted one at a time at
+    // background priority.
+    synchronized ExecutorService getExecutor() {
+        if (released) {
+            throw new RejectedExecutionException("Waveform cache has been released");
+        }
+        if (executor == null) {
+            executor = newExecutor("AudioPlayerWaveform");
+        }
+        return executor;
+    }
+
+    // Cached waveforms are read on their own thread so that they aren't
+    // queued behind the decoding of others.
+    synchronized ExecutorService getReadExecutor() {
+        if (released) {
+            throw new RejectedExecutionException("Waveform cache has been released");
+        }
+        if (readExecutor == null) {
+            readExecutor = newExecutor("AudioPlayerWaveformRead");
+        }
+        return readExecutor;
+    }
+
+    private static ExecutorService newExecutor(String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Returns the cached waveform, or null. Called on the read executor.
+    Waveform read(String key, int bucketsPerSecond) {
+        File file = getFile(key, bucketsPerSecond);
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(key)) return null;
+            long durationUs = in.readLong();
+            int length = in.readInt();
+            byte[] bytes = new byte[length * 4];
+            in.readFully(bytes);
+            float[] data = new float[length];
+            ByteBuffer.wrap(bytes).asFloatBuffer().get(data);
+            return new Waveform(durationUs, data);
+        } catch (IOException e) {
+            Log.w(AudioPlayer.TAG, "Failed to read cached waveform: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Called on the executor.
+    void write(String key, int bucketsPerSecond, long durationUs, float[] data, int length) {
+        if (!directory.exists() && !directory.mkdirs()) return;
+        File file = getFile(key, bucketsPerSecond);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeLong(durationUs);
+            out.writeInt(length);
+            ByteBuffer bytes = ByteBuffer.allocate(length * 4);
+            bytes.asFloatBuffer().put(data, 0, length);
+            out.write(bytes.array());
+        } catch (IOException e) {
+            Log.w(AudioPlayer.TAG, "Failed to cache waveform: " + e.getMessage());
+            return;
+        }
+        if (!tmpFile.renameTo(file)) return;
+        evict();
+    }
+
+    private synchronized void close() {
+        released = true;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (readExecutor != null) {
+            readExecutor.shutdownNow();
+            readExecutor = null;
+        }
+    }
+
+    private void evict() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_SIZE) return;
+        // Oldest first.
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (size <= MAX_SIZE) break;
+            size -= file.length();
+            if (!file.delete()) {
+                Log.w(AudioPlayer.TAG, "Failed to evict cached waveform " + file.getName());
+            }
+        }
+    }
+
+    private File getFile(String key, int bucketsPerSecond) {
+        return new File(directory, Long.toHexString(LoudnessIndex.hash(key)) + "_" + bucketsPerSecond);
+    }
+
+    static final class Waveform {
+        final long durationUs;
+        // Min and max of each bucket.
+        final float[] data;
+
+        Waveform(long durationUs, float[] data) {
+            this.durationUs = durationUs;
+            this.data = data;
+        }
+    }
+}
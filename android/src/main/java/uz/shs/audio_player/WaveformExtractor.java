@@ -0,0 +1,451 @@
+package uz.shs.audio_player;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.DataReader;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.extractor.DefaultExtractorInput;
+import androidx.media3.extractor.DiscardingTrackOutput;
+import androidx.media3.extractor.Extractor;
+import androidx.media3.extractor.ExtractorInput;
+import androidx.media3.extractor.ExtractorOutput;
+import androidx.media3.extractor.ExtractorsFactory;
+import androidx.media3.extractor.PositionHolder;
+import androidx.media3.extractor.SeekMap;
+import androidx.media3.extractor.TrackOutput;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Extracts the waveforms of progressive sources for one player, requested
+ * with the `extractWaveform` method call.
+ *
+ * A source is read through the same data source and extractor
+ * configuration as playback, so it can come from the media cache and warm
+ * it, and its audio track is decoded with {@link MediaCodec} on the shared
+ * {@link WaveformCache} executor. The decoded audio is reduced to the min
+ * and max sample of each bucket at the requested number of buckets per
+ * second, across all channels. Buckets are sent on the player's data
+ * channel as they are decoded, as `{"type": "waveform", "state":
+ * "progress", "offset": firstBucket, "data": Float32List}` with min/max
+ * pairs, followed by a `completed` event carrying any remaining buckets.
+ * Completed waveforms are cached on disk by URI and headers, and later
+ * requests for them are answered with a single `completed` event read on
+ * the cache's read thread. All bookkeeping happens on the player's handler
+ * thread.
+ */
+public class WaveformExtractor {
+    static final int DEFAULT_BUCKETS_PER_SECOND = 10;
+    // Partial results are sent at most this often.
+    static final long PROGRESS_INTERVAL_MS = 250;
+    private static final long CODEC_TIMEOUT_US = 10 * 1000;
+
+    private final Handler handler;
+    private final BetterEventChannel dataEventChannel;
+    private final WaveformCache cache;
+    private final Map<String, Job> jobs = new HashMap<>();
+
+    public WaveformExtractor(Handler handler, BetterEventChannel dataEventChannel, WaveformCache cache) {
+        this.handler = handler;
+        this.dataEventChannel = dataEventChannel;
+        this.cache = cache;
+    }
+
+    // Replaces any extraction already running under the same id. The disk
+    // cache is checked first, on its own thread, and the source is only
+    // queued for decoding if it isn't cached.
+    void extract(String id, Uri uri, Map<String, String> headers, DataSource.Factory dataSourceFactory, ExtractorsFactory extractorsFactory, int bucketsPerSecond) {
+        cancel(id);
+        Job job = new Job(id, WaveformCache.key(uri, headers), uri, dataSourceFactory, extractorsFactory, bucketsPerSecond);
+        try {
+            job.future = cache.getReadExecutor().submit(job::lookUp);
+            jobs.put(id, job);
+        } catch (RejectedExecutionException e) {
+            sendEvent(job, "error", 0, null, "Waveform extraction is unavailable");
+        }
+    }
+
+    void cancel(String id) {
+        Job job = jobs.remove(id);
+        if (job == null) return;
+        job.cancel();
+        sendEvent(job, "cancelled", 0, null, null);
+    }
+
+    void cancelAll() {
+        for (String id : new ArrayList<>(jobs.keySet())) {
+            cancel(id);
+        }
+    }
+
+    private void sendEvent(Job job, String state, int offset, float[] data, String error) {
+        dataEventChannel.success(AudioPlayer.mapOf(
+                "type", "waveform",
+                "id", job.id,
+                "state", state,
+                "bucketsPerSecond", job.bucketsPerSecond,
+                "offset", offset,
+                "data", data,
+                "duration", job.durationUs == C.TIME_UNSET ? null : job.durationUs,
+                "error", error));
+    }
+
+    private void postEvent(final Job job, final String state, final int offset, final float[] data, final String error, final boolean finished) {
+        handler.post(() -> {
+            // Cancelled and replaced jobs have already been reported.
+            if (jobs.get(job.id) != job) return;
+            if (finished) jobs.remove(job.id);
+            sendEvent(job, state, offset, data, error);
+        });
+    }
+
+    private final class Job implements Runnable, ExtractorOutput, TrackOutput {
+        final String id;
+        final String key;
+        final Uri uri;
+        final DataSource.Factory dataSourceFactory;
+        final ExtractorsFactory extractorsFactory;
+        final int bucketsPerSecond;
+        volatile Future<?> future;
+        volatile boolean cancelled;
+        volatile long durationUs = C.TIME_UNSET;
+
+        // Executor thread state.
+        private DataSource dataSource;
+        private int audioTrackId = C.INDEX_UNSET;
+        private MediaCodec codec;
+        private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+        private boolean rawPcm;
+        private int pcmEncoding = C.ENCODING_PCM_16BIT;
+        private int sampleRate;
+        private int channelCount;
+        // Sample data not yet committed by sampleMetadata.
+        private byte[] sampleData = new byte[64 * 1024];
+        private int sampleDataLength;
+        // Min/max pairs.
+        private float[] buckets = new float[2 * 1024];
+        private int bucketCount;
+        private float bucketMin = Float.POSITIVE_INFINITY;
+        private float bucketMax = Float.NEGATIVE_INFINITY;
+        private long frameCount;
+        private long bucketEndFrame = -1;
+        private int sentBucketCount;
+        private long lastProgressTime;
+
+        Job(String id, String key, Uri uri, DataSource.Factory dataSourceFactory, ExtractorsFactory extractorsFactory, int bucketsPerSecond) {
+            this.id = id;
+            this.key = key;
+            this.uri = uri;
+            this.dataSourceFactory = dataSourceFactory;
+            this.extractorsFactory = extractorsFactory;
+            this.bucketsPerSecond = bucketsPerSecond;
+        }
+
+        // Answers from the disk cache, or queues this job to be decoded.
+        // Called on the read executor.
+        void lookUp() {
+            WaveformCache.Waveform cached = cache.read(key, bucketsPerSecond);
+            if (cached != null) {
+                durationUs = cached.durationUs;
+                postEvent(this, "completed", 0, cached.data, null, true);
+                return;
+            }
+            if (cancelled) return;
+            try {
+                future = cache.getExecutor().submit(this);
+            } catch (RejectedExecutionException e) {
+                postEvent(this, "error", 0, null, "Waveform extraction is unavailable", true);
+                return;
+            }
+            // cancel may have run before the new future was set.
+            if (cancelled) future.cancel(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                extract();
+                if (bucketMin <= bucketMax) {
+                    endBucket();
+                }
+                if (sampleRate > 0) {
+                    durationUs = frameCount * 1000000 / sampleRate;
+                }
+                cache.write(key, bucketsPerSecond, durationUs, buckets, 2 * bucketCount);
+                postEvent(this, "completed", sentBucketCount, Arrays.copyOfRange(buckets, 2 * sentBucketCount, 2 * bucketCount), null, true);
+            } catch (InterruptedIOException e) {
+                // Cancelled.
+            } catch (IOException | RuntimeException e) {
+                if (!cancelled) {
+                    postEvent(this, "error", 0, null, e.getMessage(), true);
+                }
+            } finally {
+                release();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) future.cancel(true);
+        }
+
+        private void extract() throws IOException {
+            dataSource = dataSourceFactory.createDataSource();
+            ExtractorInput input = open(0);
+            Extractor extractor = sniff(input);
+            extractor.init(this);
+            PositionHolder positionHolder = new PositionHolder();
+            int result = Extractor.RESULT_CONTINUE;
+            try {
+                while (result != Extractor.RESULT_END_OF_INPUT) {
+                    if (cancelled) throw new InterruptedIOException();
+                    result = extractor.read(input, positionHolder);
+                    if (result == Extractor.RESULT_SEEK) {
+                        dataSource.close();
+                        input = open(positionHolder.position);
+                    }
+                }
+            } finally {
+                extractor.release();
+            }
+            if (codec == null && !rawPcm) {
+                throw new IOException("No audio track");
+            }
+            if (codec != null) {
+                int index;
+                while ((index = codec.dequeueInputBuffer(CODEC_TIMEOUT_US)) < 0) {
+                    drainOutput(false);
+                }
+                codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                drainOutput(true);
+            }
+        }
+
+        private ExtractorInput open(long position) throws IOException {
+            long length = dataSource.open(new DataSpec.Builder().setUri(uri).setPosition(position).build());
+            return new DefaultExtractorInput(dataSource, position, length == C.LENGTH_UNSET ? C.LENGTH_UNSET : position + length);
+        }
+
+        private Extractor sniff(ExtractorInput input) throws IOException {
+            for (Extractor extractor : extractorsFactory.createExtractors(uri, dataSource.getResponseHeaders())) {
+                try {
+                    if (extractor.sniff(input)) return extractor;
+                } catch (EOFException e) {
+                    // Too short for this format.
+                } finally {
+                    input.resetPeekPosition();
+                }
+            }
+            throw new IOException("Unrecognized audio format");
+        }
+
+        private void release() {
+            if (codec != null) {
+                codec.release();
+                codec = null;
+            }
+            if (dataSource != null) {
+                try {
+                    dataSource.close();
+                } catch (IOException e) {
+                    // Nothing more to read.
+                }
+            }
+        }
+
+        // ExtractorOutput
+
+        @NonNull
+        @Override
+        public TrackOutput track(int id, int type) {
+            if (type == C.TRACK_TYPE_AUDIO && (audioTrackId == C.INDEX_UNSET || audioTrackId == id)) {
+                audioTrackId = id;
+                return this;
+            }
+            return new DiscardingTrackOutput();
+        }
+
+        @Override
+        public void endTracks() {
+        }
+
+        @Override
+        public void seekMap(@NonNull SeekMap seekMap) {
+            durationUs = seekMap.getDurationUs();
+        }
+
+        // TrackOutput
+
+        @Override
+        public void format(@NonNull Format format) {
+            if (codec != null || rawPcm) return;
+            sampleRate = format.sampleRate;
+            channelCount = format.channelCount;
+            if (MimeTypes.AUDIO_RAW.equals(format.sampleMimeType)) {
+                if (format.pcmEncoding != C.ENCODING_PCM_16BIT && format.pcmEncoding != C.ENCODING_PCM_FLOAT) {
+                    throw new IllegalStateException("Unsupported PCM encoding " + format.pcmEncoding);
+                }
+                rawPcm = true;
+                pcmEncoding = format.pcmEncoding;
+                return;
+            }
+            MediaFormat mediaFormat = MediaFormat.createAudioFormat(format.sampleMimeType, format.sampleRate, format.channelCount);
+            for (int i = 0; i < format.initializationData.size(); i++) {
+                mediaFormat.setByteBuffer("csd-" + i, ByteBuffer.wrap(format.initializationData.get(i)));
+            }
+            if (format.maxInputSize != Format.NO_VALUE) {
+                mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, format.maxInputSize);
+            }
+            try {
+                codec = MediaCodec.createDecoderByType(format.sampleMimeType);
+            } catch (IOException e) {
+                throw new IllegalStateException("No decoder for " + format.sampleMimeType, e);
+            }
+            codec.configure(mediaFormat, null, null, 0);
+            codec.start();
+        }
+
+        @Override
+        public int sampleData(@NonNull DataReader input, int length, boolean allowEndOfInput, int sampleDataPart) throws IOException {
+            ensureSampleDataCapacity(sampleDataLength + length);
+            int bytesRead = input.read(sampleData, sampleDataLength, length);
+            if (bytesRead == C.RESULT_END_OF_INPUT) {
+                if (allowEndOfInput) return C.RESULT_END_OF_INPUT;
+                throw new EOFException();
+            }
+            sampleDataLength += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void sampleData(@NonNull ParsableByteArray data, int length, int sampleDataPart) {
+            ensureSampleDataCapacity(sampleDataLength + length);
+            data.readBytes(sampleData, sampleDataLength, length);
+            sampleDataLength += length;
+        }
+
+        @Override
+        public void sampleMetadata(long timeUs, int flags, int size, int offset, @Nullable CryptoData cryptoData) {
+            if (cryptoData != null) {
+                throw new IllegalStateException("Encrypted audio isn't supported");
+            }
+            // The sample is followed by offset bytes of the next one.
+            int start = sampleDataLength - offset - size;
+            if (rawPcm) {
+                accumulate(ByteBuffer.wrap(sampleData, start, size).order(ByteOrder.LITTLE_ENDIAN));
+            } else if (codec != null) {
+                queueSample(start, size, timeUs);
+            }
+            System.arraycopy(sampleData, start + size, sampleData, start, offset);
+            sampleDataLength -= size;
+        }
+
+        private void ensureSampleDataCapacity(int capacity) {
+            if (capacity > sampleData.length) {
+                sampleData = Arrays.copyOf(sampleData, Math.max(capacity, 2 * sampleData.length));
+            }
+        }
+
+        // Decoding
+
+        private void queueSample(int start, int size, long timeUs) {
+            int index;
+            while ((index = codec.dequeueInputBuffer(CODEC_TIMEOUT_US)) < 0) {
+                drainOutput(false);
+            }
+            ByteBuffer inputBuffer = codec.getInputBuffer(index);
+            inputBuffer.clear();
+            inputBuffer.put(sampleData, start, size);
+            codec.queueInputBuffer(index, 0, size, timeUs, 0);
+            drainOutput(false);
+        }
+
+        // Drains available output, or all output up to the end of stream.
+        private void drainOutput(boolean toEndOfStream) {
+            while (true) {
+                int index = codec.dequeueOutputBuffer(bufferInfo, toEndOfStream ? CODEC_TIMEOUT_US : 0);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat format = codec.getOutputFormat();
+                    sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    if (Build.VERSION.SDK_INT >= 24 && format.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+                        pcmEncoding = format.getInteger(MediaFormat.KEY_PCM_ENCODING);
+                    }
+                    if (frameCount == 0) bucketEndFrame = -1;
+                    continue;
+                }
+                if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    if (!toEndOfStream || cancelled) return;
+                    continue;
+                }
+                if (index < 0) continue;
+                ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+                outputBuffer.position(bufferInfo.offset);
+                outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                accumulate(outputBuffer.order(ByteOrder.nativeOrder()));
+                codec.releaseOutputBuffer(index, false);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) return;
+            }
+        }
+
+        private void accumulate(ByteBuffer pcm) {
+            if (sampleRate <= 0 || channelCount <= 0) return;
+            if (bucketEndFrame < 0) {
+                bucketEndFrame = (long) (bucketCount + 1) * sampleRate / bucketsPerSecond;
+            }
+            boolean isFloat = pcmEncoding == C.ENCODING_PCM_FLOAT;
+            int bytesPerFrame = (isFloat ? 4 : 2) * channelCount;
+            while (pcm.remaining() >= bytesPerFrame) {
+                for (int channel = 0; channel < channelCount; channel++) {
+                    float sample = isFloat ? pcm.getFloat() : pcm.getShort() / 32768f;
+                    if (sample < bucketMin) bucketMin = sample;
+                    if (sample > bucketMax) bucketMax = sample;
+                }
+                if (++frameCount >= bucketEndFrame) {
+                    endBucket();
+                }
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (bucketCount > sentBucketCount && now - lastProgressTime >= PROGRESS_INTERVAL_MS) {
+                postEvent(this, "progress", sentBucketCount, Arrays.copyOfRange(buckets, 2 * sentBucketCount, 2 * bucketCount), null, false);
+                sentBucketCount = bucketCount;
+                lastProgressTime = now;
+            }
+        }
+
+        private void endBucket() {
+            if (2 * bucketCount + 2 > buckets.length) {
+                buckets = Arrays.copyOf(buckets, 2 * buckets.length);
+            }
+            boolean empty = bucketMin > bucketMax;
+            buckets[2 * bucketCount] = empty ? 0f : bucketMin;
+            buckets[2 * bucketCount + 1] = empty ? 0f : bucketMax;
+            bucketCount++;
+            bucketMin = Float.POSITIVE_INFINITY;
+            bucketMax = Float.NEGATIVE_INFINITY;
+            bucketEndFrame = (long) (bucketCount + 1) * sampleRate / bucketsPerSecond;
+        }
+    }
+}
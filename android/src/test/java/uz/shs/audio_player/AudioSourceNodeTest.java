@@ -0,0 +1,115 @@
+package uz.shs.audio_player;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AudioSourceNodeTest {
+
+    @Test
+    public void indexOfAppendedChild() {
+        AudioSourceNode.Concatenating root = concatenating("root", leaf("a"), leaf("b"), leaf("c"));
+        // Validates the offsets of every child.
+        assertEquals(3, root.getChildOffset(3));
+        assertEquals(2, root.getChildOffset(2));
+        AudioSourceNode d = leaf("d");
+        root.insert(3, Collections.singletonList(d));
+        assertEquals(3, root.indexOf(d));
+        assertEquals(Collections.singletonList(3), d.getOffsets());
+    }
+
+    @Test
+    public void editInsideAppendedNestedPlaylist() {
+        AudioSourceNode.Concatenating root = concatenating("root", leaf("a"), leaf("b"), leaf("c"));
+        assertEquals(2, root.getChildOffset(2));
+        AudioSourceNode.Concatenating nested = concatenating("nested", leaf("n1"), leaf("n2"));
+        root.insert(3, Collections.singletonList(nested));
+        assertEquals(Collections.singletonList(3), nested.getOffsets());
+
+        AudioSourceNode n3 = leaf("n3");
+        nested.insert(2, Collections.singletonList(n3));
+        assertEquals(6, root.size);
+        assertEquals(Collections.singletonList(5), n3.getOffsets());
+
+        // A child appended after the nested playlist follows its new size.
+        AudioSourceNode e = leaf("e");
+        root.insert(4, Collections.singletonList(e));
+        assertEquals(4, root.indexOf(e));
+        assertEquals(Collections.singletonList(6), e.getOffsets());
+    }
+
+    @Test
+    public void replaceAppendedChild() {
+        AudioSourceNode.Concatenating root = concatenating("root", leaf("a"), leaf("b"), leaf("c"));
+        assertEquals(2, root.getChildOffset(2));
+        AudioSourceNode d = leaf("d");
+        root.insert(3, Collections.singletonList(d));
+
+        // As AudioPlayer.replaceAudioSource does it.
+        int index = root.indexOf(d);
+        List<AudioSourceNode> removed = root.removeRange(index, index + 1);
+        assertEquals(Collections.singletonList(d), removed);
+        AudioSourceNode replacement = leaf("d2");
+        root.insert(index, Collections.singletonList(replacement));
+
+        assertEquals(Arrays.asList("a", "b", "c", "d2"), childIds(root));
+        assertEquals(3, root.indexOf(replacement));
+        assertEquals(-1, root.indexOf(d));
+    }
+
+    @Test
+    public void offsetsAfterMoveAndRemove() {
+        AudioSourceNode.Concatenating root = concatenating("root", leaf("a"), leaf("b"), leaf("c"), leaf("d"));
+        AudioSourceNode a = root.getChild(0);
+        assertEquals(3, root.getChildOffset(3));
+        root.move(0, 3);
+        assertEquals(3, root.indexOf(a));
+        assertEquals(Collections.singletonList(3), a.getOffsets());
+        root.removeRange(0, 2);
+        assertEquals(1, root.indexOf(a));
+        assertEquals(Arrays.asList("d", "a"), childIds(root));
+    }
+
+    @Test
+    public void offsetsInsideLooping() {
+        AudioSourceNode.Concatenating inner = concatenating("inner", leaf("a"), leaf("b"));
+        AudioSourceNode.Looping looping = new AudioSourceNode.Looping("loop", inner, 2);
+        AudioSourceNode.Concatenating root = concatenating("root", leaf("x"), looping);
+        AudioSourceNode c = leaf("c");
+        inner.insert(2, Collections.singletonList(c));
+        assertEquals(7, root.size);
+        assertEquals(Arrays.asList(3, 6), c.getOffsets());
+    }
+
+    @Test
+    public void shuffleOrderFollowsChildOffsets() {
+        AudioSourceNode.Concatenating nested = concatenating("nested", leaf("n1"), leaf("n2"));
+        AudioSourceNode.Concatenating root = new AudioSourceNode.Concatenating("root",
+                Arrays.asList(leaf("a"), nested, leaf("b")), new int[] {2, 1, 0});
+        assertArrayEquals(new int[] {3, 1, 2, 0}, root.buildShuffleOrder());
+    }
+
+    private static AudioSourceNode leaf(String id) {
+        return new AudioSourceNode.Leaf(id, null);
+    }
+
+    private static AudioSourceNode.Concatenating concatenating(String id, AudioSourceNode... children) {
+        return new AudioSourceNode.Concatenating(id, new ArrayList<>(Arrays.asList(children)), null);
+    }
+
+    private static List<String> childIds(AudioSourceNode.Concatenating concatenating) {
+        List<AudioSourceNode> children = new ArrayList<>();
+        concatenating.collectChildren(children);
+        List<String> ids = new ArrayList<>();
+        for (AudioSourceNode child : children) {
+            ids.add(child.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,164 @@
+package uz.shs.audio_player;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JMH-style harness for the JVM benchmarks.
+ *
+ * Each benchmark runs warmup iterations and then measured iterations of a
+ * fixed number of operations. It reports the time per operation and the
+ * bytes allocated per operation on the calling thread. Work that the code
+ * under test hands to other threads, such as ExoPlayer's playback thread,
+ * is not counted. Results are written as JSON to the directory in the
+ * `benchmark.outputDir` system property, one file per suite, so that runs
+ * can be compared to catch regressions.
+ */
+final class BenchmarkRunner {
+    static final int WARMUP_ITERATIONS = 5;
+    static final int MEASURED_ITERATIONS = 10;
+
+    private final String suite;
+    private final Runnable betweenIterations;
+    private final List<Map<String, Object>> results = new ArrayList<>();
+
+    interface Operation {
+        // i counts the operations within an iteration.
+        void run(int i) throws Exception;
+    }
+
+    // betweenIterations runs untimed after every iteration, e.g. to drain
+    // work that the operations posted to a looper.
+    BenchmarkRunner(String suite, Runnable betweenIterations) {
+        this.suite = suite;
+        this.betweenIterations = betweenIterations;
+    }
+
+    // Runs a benchmark and returns its result, to which callers may add
+    // metrics of their own before the results are written.
+    Map<String, Object> run(String name, int operationsPerIteration, Operation operation) throws Exception {
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            for (int i = 0; i < operationsPerIteration; i++) {
+                operation.run(i);
+            }
+            betweenIterations.run();
+        }
+        long[] times = new long[MEASURED_ITERATIONS];
+        long allocatedBytes = 0;
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            long allocatedBefore = currentThreadAllocatedBytes();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < operationsPerIteration; i++) {
+                operation.run(i);
+            }
+            times[iteration] = System.nanoTime() - startTime;
+            allocatedBytes += currentThreadAllocatedBytes() - allocatedBefore;
+            betweenIterations.run();
+        }
+        Arrays.sort(times);
+        long totalTime = 0;
+        for (long time : times) {
+            totalTime += time;
+        }
+        long operations = (long) operationsPerIteration * MEASURED_ITERATIONS;
+        double nsPerOp = (double) totalTime / operations;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", name);
+        result.put("iterations", MEASURED_ITERATIONS);
+        result.put("operationsPerIteration", operationsPerIteration);
+        result.put("nsPerOp", nsPerOp);
+        result.put("nsPerOpMin", (double) times[0] / operationsPerIteration);
+        result.put("nsPerOpMedian", (double) times[times.length / 2] / operationsPerIteration);
+        result.put("opsPerSecond", 1e9 / nsPerOp);
+        result.put("bytesAllocatedPerOp", isAllocationTracked() ? (double) allocatedBytes / operations : -1.0);
+        results.add(result);
+        System.out.println(suite + "." + name + ": " + result);
+        return result;
+    }
+
+    // Writes every result so far to <benchmark.outputDir>/<suite>.json.
+    void write() throws IOException {
+        File directory = new File(System.getProperty("benchmark.outputDir", "build/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("suite", suite);
+        json.put("timestamp", System.currentTimeMillis());
+        json.put("javaVersion", System.getProperty("java.version"));
+        json.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        json.put("results", results);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, suite + ".json")), Charset.forName("UTF-8"))) {
+            writeJson(writer, json);
+            writer.write('\n');
+        }
+    }
+
+    private static boolean isAllocationTracked() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        if (!isAllocationTracked()) return 0;
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static void writeJson(Writer writer, Object value) throws IOException {
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof Map) {
+            writer.write('{');
+            Iterator<? extends Map.Entry<?, ?>> it = ((Map<?, ?>) value).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<?, ?> entry = it.next();
+                writeJson(writer, String.valueOf(entry.getKey()));
+                writer.write(':');
+                writeJson(writer, entry.getValue());
+                if (it.hasNext()) writer.write(',');
+            }
+            writer.write('}');
+        } else if (value instanceof List) {
+            writer.write('[');
+            Iterator<?> it = ((List<?>) value).iterator();
+            while (it.hasNext()) {
+                writeJson(writer, it.next());
+                if (it.hasNext()) writer.write(',');
+            }
+            writer.write(']');
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            writer.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : String.valueOf(d));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writer.write(value.toString());
+        } else {
+            String s = value.toString();
+            writer.write('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c < 0x20) {
+                    writer.write(String.format("\\u%04x", (int) c));
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('"');
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DefaultDataSource;
+import androidx.media3.datasource.DefaultHttpDataSource;
+import androidx.media3.exoplayer.source.ProgressiveMediaSource;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the per-source cost of building progressive media sources with
+ * a new factory chain per source against the shared factories in
+ * {@link MediaSourceFactories}. See {@link PluginBenchmark} for how to run
+ * benchmarks.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class MediaSourceFactoriesBenchmark {
+    static final int SOURCE_COUNT = 1000;
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("MediaSourceFactoriesBenchmark", ShadowLooper::idleMainLooper);
+
+    private Context context;
+    private MediaCache mediaCache;
+    private NetworkStack networkStack;
+    private final Map<Object, Object> headers = new HashMap<>();
+    private final Uri[] uris = new Uri[SOURCE_COUNT];
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        mediaCache = MediaCache.acquire(context);
+        networkStack = new NetworkStack();
+        headers.put("Authorization", "Bearer token");
+        headers.put("X-Client", "benchmark");
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            uris[i] = Uri.parse("https://example.com/tracks/" + i + ".mp3");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        networkStack.release();
+        mediaCache.release();
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.write();
+    }
+
+    // How every progressive source was built before the factories were
+    // shared.
+    @Test
+    public void factoryPerSource() throws Exception {
+        runner.run("progressiveFactoryPerSource", SOURCE_COUNT, i -> {
+            Map<String, String> requestProperties = AudioPlayer.castToStringMap(headers);
+            DefaultHttpDataSource.Factory httpDataSourceFactory = new DefaultHttpDataSource.Factory()
+                    .setUserAgent(Util.getUserAgent(context, "just_audio"))
+                    .setAllowCrossProtocolRedirects(true)
+                    .setDefaultRequestProperties(requestProperties);
+            new ProgressiveMediaSource.Factory(
+                    new DefaultDataSource.Factory(context, httpDataSourceFactory),
+                    MediaSourceFactories.buildExtractorsFactory(null))
+                    .createMediaSource(new MediaItem.Builder().setUri(uris[i]).setTag("id" + i).build());
+        });
+    }
+
+    @Test
+    public void sharedFactories() throws Exception {
+        final MediaSourceFactories factories = new MediaSourceFactories(context, mediaCache, networkStack);
+        final RetryPolicy retryPolicy = RetryPolicy.fromJson(null);
+        runner.run("progressiveSharedFactories", SOURCE_COUNT, i -> factories
+                .getProgressiveFactory(AudioPlayer.castToStringMap(headers), null, false, null, retryPolicy)
+                .createMediaSource(new MediaItem.Builder().setUri(uris[i]).setTag("id" + i).build()));
+    }
+}
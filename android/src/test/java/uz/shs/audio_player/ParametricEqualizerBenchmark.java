@@ -0,0 +1,91 @@
+package uz.shs.audio_player;
+
+import androidx.media3.common.C;
+import androidx.media3.common.audio.AudioProcessor.AudioFormat;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+/**
+ * Measures how many samples per second one core can run through
+ * {@link ParametricEqualizer} with its five default bands all boosted or
+ * cut, in buffers of 1024 stereo frames at 48kHz. See
+ * {@link PluginBenchmark} for how to run benchmarks.
+ */
+public class ParametricEqualizerBenchmark {
+    static final int SAMPLE_RATE = 48000;
+    static final int CHANNEL_COUNT = 2;
+    static final int FRAMES_PER_BUFFER = 1024;
+    static final int BUFFER_COUNT = 2000;
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("ParametricEqualizerBenchmark", () -> { });
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.write();
+    }
+
+    @Test
+    public void pcm16() throws Exception {
+        measure("pcm16", C.ENCODING_PCM_16BIT, false);
+    }
+
+    @Test
+    public void pcmFloat() throws Exception {
+        measure("pcmFloat", C.ENCODING_PCM_FLOAT, false);
+    }
+
+    // Changes a band gain before every buffer, so every buffer ramps the
+    // coefficients.
+    @Test
+    public void pcm16WithGainChanges() throws Exception {
+        measure("pcm16WithGainChanges", C.ENCODING_PCM_16BIT, true);
+    }
+
+    private static void measure(String name, int encoding, final boolean changeGains) throws Exception {
+        final ParametricEqualizer equalizer = new ParametricEqualizer(null);
+        equalizer.setEnabled(true);
+        for (int band = 0; band < ParametricEqualizer.DEFAULT_CENTER_FREQUENCIES.length; band++) {
+            equalizer.setBandGain(band, band % 2 == 0 ? 6f : -6f);
+        }
+        equalizer.configure(new AudioFormat(SAMPLE_RATE, CHANNEL_COUNT, encoding));
+        equalizer.flush();
+        final ByteBuffer input = buildInput(encoding);
+        Map<String, Object> result = runner.run(name, BUFFER_COUNT, i -> {
+            if (changeGains) {
+                equalizer.setBandGain(i % ParametricEqualizer.DEFAULT_CENTER_FREQUENCIES.length, (i % 24) - 12f);
+            }
+            input.rewind();
+            equalizer.queueInput(input);
+            equalizer.getOutput();
+        });
+        double samplesPerSecond = FRAMES_PER_BUFFER * CHANNEL_COUNT * 1e9 / (Double) result.get("nsPerOp");
+        result.put("samplesPerBuffer", FRAMES_PER_BUFFER * CHANNEL_COUNT);
+        result.put("samplesPerSecondPerCore", samplesPerSecond);
+        // How many real-time streams of this format one core could run.
+        result.put("realtimeFactor", samplesPerSecond / (SAMPLE_RATE * CHANNEL_COUNT));
+    }
+
+    // One buffer of a 1kHz sine at half scale.
+    private static ByteBuffer buildInput(int encoding) {
+        int bytesPerSample = encoding == C.ENCODING_PCM_FLOAT ? 4 : 2;
+        ByteBuffer input = ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * CHANNEL_COUNT * bytesPerSample)
+                .order(ByteOrder.nativeOrder());
+        for (int frame = 0; frame < FRAMES_PER_BUFFER; frame++) {
+            float sample = 0.5f * (float) Math.sin(2 * Math.PI * 1000 * frame / SAMPLE_RATE);
+            for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+                if (encoding == C.ENCODING_PCM_FLOAT) {
+                    input.putFloat(sample);
+                } else {
+                    input.putShort((short) (sample * Short.MAX_VALUE));
+                }
+            }
+        }
+        input.flip();
+        return input;
+    }
+}
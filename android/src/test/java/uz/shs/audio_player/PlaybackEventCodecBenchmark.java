@@ -0,0 +1,69 @@
+package uz.shs.audio_player;
+
+import androidx.media3.extractor.metadata.icy.IcyHeaders;
+import androidx.media3.extractor.metadata.icy.IcyInfo;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * Compares bytes and allocations per playback event between the map form
+ * sent through the standard codec and {@link PlaybackEventCodec}. Each
+ * event moves the position, and the ICY metadata changes every 100 events.
+ * See {@link PluginBenchmark} for how to run benchmarks.
+ */
+public class PlaybackEventCodecBenchmark {
+    static final int EVENT_COUNT = 10000;
+    static final int ICY_CHANGE_INTERVAL = 100;
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("PlaybackEventCodecBenchmark", () -> { });
+
+    private static final IcyInfo[] ICY_INFOS = {
+            new IcyInfo(new byte[0], "Artist - Title A", "https://example.com/a"),
+            new IcyInfo(new byte[0], "Artist - Title B", "https://example.com/b"),
+    };
+    private static final IcyHeaders ICY_HEADERS = new IcyHeaders(128000, "Genre", "Station", "https://example.com", true, 16000);
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.write();
+    }
+
+    @Test
+    public void map() throws Exception {
+        final PlaybackEventSnapshot snapshot = PluginBenchmark.newSnapshot();
+        final long[] bytes = new long[1];
+        Map<String, Object> result = runner.run("map", EVENT_COUNT, i -> {
+            update(snapshot, i);
+            ByteBuffer message = StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(snapshot.toMap());
+            bytes[0] += message.position();
+        });
+        result.put("bytesPerEvent", (double) bytes[0] / (EVENT_COUNT * (BenchmarkRunner.WARMUP_ITERATIONS + BenchmarkRunner.MEASURED_ITERATIONS)));
+    }
+
+    // The path events take in binary mode: the coalescer hands the codec a
+    // pooled copy, which is encoded on the platform thread.
+    @Test
+    public void binary() throws Exception {
+        final PlaybackEventSnapshot snapshot = PluginBenchmark.newSnapshot();
+        final PlaybackEventCodec codec = new PlaybackEventCodec();
+        final long[] bytes = new long[1];
+        Map<String, Object> result = runner.run("binary", EVENT_COUNT, i -> {
+            update(snapshot, i);
+            ByteBuffer message = codec.encode(codec.obtain(snapshot));
+            bytes[0] += message.position();
+        });
+        result.put("bytesPerEvent", (double) bytes[0] / (EVENT_COUNT * (BenchmarkRunner.WARMUP_ITERATIONS + BenchmarkRunner.MEASURED_ITERATIONS)));
+    }
+
+    private static void update(PlaybackEventSnapshot snapshot, int i) {
+        snapshot.updatePosition = i * 1000L;
+        snapshot.updateElapsedRealtime = i;
+        snapshot.setIcyMetadata(ICY_INFOS[(i / ICY_CHANGE_INTERVAL) % 2], ICY_HEADERS);
+    }
+}
@@ -0,0 +1,234 @@
+package uz.shs.audio_player;
+
+import android.content.Context;
+
+import androidx.media3.extractor.metadata.icy.IcyHeaders;
+import androidx.media3.extractor.metadata.icy.IcyInfo;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * Benchmarks of the Java plugin layer, run on the JVM under Robolectric
+ * with Flutter stubbed out by {@link StubBinaryMessenger}.
+ *
+ * Benchmarks are skipped by a plain test run. Run them from an app that
+ * depends on the plugin, such as the example, with
+ *
+ *     ./gradlew :audio_player:testDebugUnitTest -Pbenchmark
+ *
+ * Results are written to build/benchmarks/PluginBenchmark.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class PluginBenchmark {
+    static final int PLAYER_COUNT = 64;
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("PluginBenchmark", ShadowLooper::idleMainLooper);
+
+    private StubBinaryMessenger messenger;
+    private MainMethodCallHandler mainHandler;
+    private int nextPlayerId;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        messenger = new StubBinaryMessenger();
+        mainHandler = new MainMethodCallHandler(context, messenger);
+    }
+
+    @After
+    public void tearDown() {
+        mainHandler.release();
+        ShadowLooper.idleMainLooper();
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.write();
+    }
+
+    // Decodes a tree of 1000 items from concatenating, looping and leaf
+    // sources through the load method call.
+    @Test
+    public void loadNestedTree() throws Exception {
+        String id = initPlayer();
+        List<ByteBuffer> loads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // Alternate between two trees so that sources aren't reused.
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put("id", "load" + i);
+            arguments.put("audioSource", buildTree("t" + i + "-", 10, 80, 10));
+            loads.add(StubBinaryMessenger.encodeMethodCall("load", arguments));
+        }
+        final String channel = methodChannel(id);
+        runner.run("loadNestedTree1000", 10, i -> messenger.deliver(channel, loads.get(i % 2)));
+    }
+
+    // Builds the playback event map, with ICY metadata that changes every
+    // 100 events, and encodes it as the standard codec would.
+    @Test
+    public void playbackEventMap() throws Exception {
+        final PlaybackEventSnapshot snapshot = newSnapshot();
+        final IcyInfo[] infos = {
+                new IcyInfo(new byte[0], "Artist - Title A", "https://example.com/a"),
+                new IcyInfo(new byte[0], "Artist - Title B", "https://example.com/b"),
+        };
+        final IcyHeaders headers = new IcyHeaders(128000, "Genre", "Station", "https://example.com", true, 16000);
+        final long[] bytes = new long[1];
+        Map<String, Object> result = runner.run("playbackEventMap", 10000, i -> {
+            snapshot.updatePosition = i * 1000L;
+            snapshot.updateElapsedRealtime = i;
+            snapshot.setIcyMetadata(infos[(i / 100) % 2], headers);
+            ByteBuffer message = StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(snapshot.toMap());
+            bytes[0] = message.position();
+        });
+        result.put("bytesPerEvent", bytes[0]);
+    }
+
+    @Test
+    public void castToStringMap() throws Exception {
+        final Map<Object, Object> headers = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            headers.put("X-Header-" + i, "value" + i);
+        }
+        runner.run("castToStringMap8", 100000, i -> AudioPlayer.castToStringMap(headers));
+    }
+
+    @Test
+    public void mapOf() throws Exception {
+        runner.run("mapOf10", 100000, i -> AudioPlayer.mapOf(
+                "a", i, "b", i, "c", i, "d", i, "e", i,
+                "f", i, "g", i, "h", i, "i", i, "j", i));
+    }
+
+    // Sends setVolume round robin to players that are all listening for
+    // events, as Flutter would on the platform thread.
+    @Test
+    public void dispatchAcrossPlayers() throws Exception {
+        final String[] channels = new String[PLAYER_COUNT];
+        final ByteBuffer[] calls = new ByteBuffer[2];
+        for (int i = 0; i < PLAYER_COUNT; i++) {
+            String id = initPlayer();
+            messenger.listen(eventChannel(id));
+            channels[i] = methodChannel(id);
+        }
+        for (int i = 0; i < calls.length; i++) {
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put("volume", i == 0 ? 0.5 : 1.0);
+            calls[i] = StubBinaryMessenger.encodeMethodCall("setVolume", arguments);
+        }
+        runner.run("dispatchAcross" + PLAYER_COUNT + "Players", 10000,
+                i -> messenger.deliver(channels[i % PLAYER_COUNT], calls[(i / PLAYER_COUNT) % 2]));
+    }
+
+    private String initPlayer() {
+        String id = "player" + nextPlayerId++;
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("id", id);
+        arguments.put("androidAudioEffects", new ArrayList<Object>());
+        arguments.put("androidOffloadSchedulingEnabled", false);
+        mainHandler.onMethodCall(new MethodCall("init", arguments), new FailingResult());
+        ShadowLooper.idleMainLooper();
+        return id;
+    }
+
+    static PlaybackEventSnapshot newSnapshot() {
+        PlaybackEventSnapshot snapshot = new PlaybackEventSnapshot();
+        snapshot.processingState = AudioPlayer.ProcessingState.ready.ordinal();
+        snapshot.updateTime = System.currentTimeMillis();
+        snapshot.speed = 1f;
+        snapshot.bufferedPosition = 30000000L;
+        snapshot.hasDuration = true;
+        snapshot.duration = 180000000L;
+        snapshot.hasCurrentIndex = true;
+        snapshot.currentIndex = 3;
+        snapshot.hasAudioSessionId = true;
+        snapshot.audioSessionId = 42;
+        return snapshot;
+    }
+
+    // A concatenating source of groups, each a concatenating source of
+    // leaves followed by looping sources that play a leaf twice.
+    static Map<String, Object> buildTree(String prefix, int groupCount, int leafCount, int loopingCount) {
+        List<Object> groups = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++) {
+            List<Object> children = new ArrayList<>();
+            for (int i = 0; i < leafCount; i++) {
+                children.add(silence(prefix + g + "-" + i));
+            }
+            for (int i = 0; i < loopingCount; i++) {
+                Map<String, Object> looping = new HashMap<>();
+                looping.put("id", prefix + g + "-loop" + i);
+                looping.put("type", "looping");
+                looping.put("count", 2);
+                looping.put("child", silence(prefix + g + "-looped" + i));
+                children.add(looping);
+            }
+            groups.add(concatenating(prefix + g, children));
+        }
+        return concatenating(prefix + "root", groups);
+    }
+
+    static Map<String, Object> concatenating(String id, List<Object> children) {
+        List<Integer> shuffleOrder = new ArrayList<>();
+        for (int i = 0; i < children.size(); i++) {
+            shuffleOrder.add(i);
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", id);
+        map.put("type", "concatenating");
+        map.put("children", children);
+        map.put("shuffleOrder", shuffleOrder);
+        return map;
+    }
+
+    static Map<String, Object> silence(String id) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", id);
+        map.put("type", "silence");
+        map.put("duration", 1000000L);
+        return map;
+    }
+
+    static String methodChannel(String id) {
+        return "com.ryanheise.just_audio.methods." + id;
+    }
+
+    static String eventChannel(String id) {
+        return "com.ryanheise.just_audio.events." + id;
+    }
+
+    private static final class FailingResult implements MethodChannel.Result {
+        @Override
+        public void success(Object result) {
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            throw new AssertionError(errorCode + ": " + errorMessage);
+        }
+
+        @Override
+        public void notImplemented() {
+            throw new AssertionError("Not implemented");
+        }
+    }
+}
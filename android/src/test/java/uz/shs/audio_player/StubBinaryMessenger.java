@@ -0,0 +1,75 @@
+package uz.shs.audio_player;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * A {@link BinaryMessenger} that stands in for the Flutter engine in JVM
+ * benchmarks.
+ *
+ * Messages sent to Dart are counted and dropped. Method calls from Dart are
+ * encoded with the standard method codec and delivered synchronously to
+ * the handler registered for the channel, as the engine would deliver them
+ * on the platform thread.
+ */
+final class StubBinaryMessenger implements BinaryMessenger {
+    private final Map<String, BinaryMessageHandler> handlers = new HashMap<>();
+    long messagesSent;
+    long bytesSent;
+    long replies;
+
+    private final BinaryReply replyCounter = new BinaryReply() {
+        @Override
+        public void reply(ByteBuffer reply) {
+            replies++;
+        }
+    };
+
+    @Override
+    public void send(String channel, ByteBuffer message) {
+        send(channel, message, null);
+    }
+
+    @Override
+    public void send(String channel, ByteBuffer message, BinaryReply callback) {
+        messagesSent++;
+        // The engine reads the message up to its position.
+        if (message != null) bytesSent += message.position();
+        if (callback != null) callback.reply(null);
+    }
+
+    @Override
+    public void setMessageHandler(String channel, BinaryMessageHandler handler) {
+        if (handler == null) {
+            handlers.remove(channel);
+        } else {
+            handlers.put(channel, handler);
+        }
+    }
+
+    static ByteBuffer encodeMethodCall(String method, Object arguments) {
+        return StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments));
+    }
+
+    // Delivers a method call encoded by encodeMethodCall. The same buffer
+    // may be delivered again.
+    void deliver(String channel, ByteBuffer methodCall) {
+        BinaryMessageHandler handler = handlers.get(channel);
+        if (handler == null) {
+            throw new IllegalStateException("No handler for " + channel);
+        }
+        methodCall.rewind();
+        handler.onMessage(methodCall, replyCounter);
+    }
+
+    // Starts listening to an event channel, as Dart does when its stream
+    // gets its first listener.
+    void listen(String channel) {
+        deliver(channel, encodeMethodCall("listen", null));
+    }
+}
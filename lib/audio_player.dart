@@ -65,6 +65,8 @@ class AudioPlayer {
 
   final bool _androidOffloadSchedulingEnabled;
 
+  final bool _androidEagerInitialization;
+
   /// This is `true` when the audio player needs to engage the native platform
   /// side of the plugin to decode or play audio, and is `false` when the native
   /// resources are not needed (i.e. after initial instantiation and after [stop]).
@@ -98,6 +100,15 @@ class AudioPlayer {
   StreamSubscription<PlayerDataMessage>? _playerDataSubscription;
 
   final String _id;
+
+  /// (Android) The version of the loaded playlist that the next edit is
+  /// applied against. The platform counts the edits since the last load, so
+  /// a mismatch means the two sides have drifted.
+  int _androidPlaylistVersion = 0;
+
+  /// (Android) Counts loads, so that an edit that fails after the playlist
+  /// was loaded again doesn't load it once more.
+  int _androidPlaylistLoadCount = 0;
   final _proxy = _ProxyHttpServer();
   AudioSource? _audioSource;
   final Map<String, AudioSource> _audioSources = {};
@@ -128,6 +139,10 @@ class AudioPlayer {
   final _androidAudioSessionIdSubject = BehaviorSubject<int?>();
   final _positionDiscontinuitySubject =
       PublishSubject<PositionDiscontinuity>(sync: true);
+  final _androidPrefetchEventSubject = PublishSubject<AndroidPrefetchEvent>();
+  final _androidMetricsSubject = PublishSubject<AndroidMetricsSnapshot>();
+  final _androidWaveformEventSubject = PublishSubject<AndroidWaveformEvent>();
+  final _androidVisualizerSubject = PublishSubject<AndroidVisualizerFrame>();
   var _seeking = false;
 
   // ignore: close_sinks
@@ -177,6 +192,10 @@ class AudioPlayer {
   ///
   /// The default audio loading and buffering behaviour can be configured via
   /// the [audioLoadConfiguration] parameter.
+  ///
+  /// On Android, set [androidEagerInitialization] to `true` to start building
+  /// the native player as soon as the platform player is created rather than
+  /// on the first load.
   AudioPlayer({
     String? userAgent,
     bool handleInterruptions = true,
@@ -185,6 +204,7 @@ class AudioPlayer {
     AudioLoadConfiguration? audioLoadConfiguration,
     AudioPipeline? audioPipeline,
     bool androidOffloadSchedulingEnabled = false,
+    bool androidEagerInitialization = false,
     bool useProxyForRequestHeaders = true,
   })  : _id = _uuid.v4(),
         _userAgent = userAgent,
@@ -194,6 +214,7 @@ class AudioPlayer {
         _audioLoadConfiguration = audioLoadConfiguration,
         _audioPipeline = audioPipeline ?? AudioPipeline(),
         _androidOffloadSchedulingEnabled = androidOffloadSchedulingEnabled,
+        _androidEagerInitialization = androidEagerInitialization,
         _useProxyForRequestHeaders = useProxyForRequestHeaders {
     _audioPipeline._setup(this);
     if (_audioLoadConfiguration?.darwinLoadControl != null) {
@@ -566,6 +587,26 @@ class AudioPlayer {
   Stream<PositionDiscontinuity> get positionDiscontinuityStream =>
       _positionDiscontinuitySubject.stream;
 
+  /// (Android) A stream of the progress of prefetches started by
+  /// [androidPrefetch].
+  Stream<AndroidPrefetchEvent> get androidPrefetchEventStream =>
+      _androidPrefetchEventSubject.stream;
+
+  /// (Android) A stream of the snapshots sent every
+  /// [AndroidMetrics.snapshotInterval].
+  Stream<AndroidMetricsSnapshot> get androidMetricsStream =>
+      _androidMetricsSubject.stream;
+
+  /// (Android) A stream of the buckets of waveforms requested by
+  /// [androidExtractWaveform] as they are decoded.
+  Stream<AndroidWaveformEvent> get androidWaveformEventStream =>
+      _androidWaveformEventSubject.stream;
+
+  /// (Android) A stream of the spectrum frames of the visualizer enabled with
+  /// [AudioLoadConfiguration.androidVisualizer].
+  Stream<AndroidVisualizerFrame> get androidVisualizerStream =>
+      _androidVisualizerSubject.stream;
+
   /// Whether the player should automatically delay playback in order to
   /// minimize stalling. (iOS 10.0 or later only)
   bool get automaticallyWaitsToMinimizeStalling =>
@@ -589,7 +630,8 @@ class AudioPlayer {
   Duration _getPositionFor(PlaybackEvent playbackEvent) {
     if (playing && processingState == ProcessingState.ready) {
       final result = playbackEvent.updatePosition +
-          (DateTime.now().difference(playbackEvent.updateTime)) * speed;
+          (DateTime.now().difference(playbackEvent.updateTime)) *
+              (playbackEvent.androidSpeed ?? speed);
       return playbackEvent.duration == null || result <= playbackEvent.duration!
           ? result
           : playbackEvent.duration!;
@@ -845,6 +887,44 @@ class AudioPlayer {
     _audioSources[source._id] = source;
   }
 
+  /// (Android) The method channel of [platform], for the calls that the
+  /// platform interface doesn't know.
+  static MethodChannel _androidMethodChannel(AudioPlayerPlatform platform) =>
+      MethodChannel('com.ryanheise.just_audio.methods.${platform.id}');
+
+  /// Sends a playlist edit to the platform. On Android the edit is sent as a
+  /// diff against [_androidPlaylistVersion], and if the platform's playlist
+  /// has drifted from ours the whole playlist is loaded again. Elsewhere
+  /// [fallback] sends the edit through the platform interface.
+  Future<void> _editPlaylist(Map<String, dynamic> operation,
+      Future<void> Function(AudioPlayerPlatform platform) fallback) async {
+    final platform = await _platform;
+    if (platform is _IdleAudioPlayer || !_isAndroid()) {
+      await fallback(platform);
+      return;
+    }
+    // Edits are applied in the order they're sent, so the next edit can be
+    // sent before this one is acknowledged.
+    final loadCount = _androidPlaylistLoadCount;
+    try {
+      await _androidMethodChannel(platform)
+          .invokeMethod<Map<dynamic, dynamic>>('applyPlaylistDiff', {
+        'baseVersion': _androidPlaylistVersion++,
+        'operations': [operation],
+      });
+    } on PlatformException catch (e) {
+      if (e.code != 'playlistVersionMismatch') rethrow;
+      if (loadCount != _androidPlaylistLoadCount ||
+          platform != _platformValue ||
+          _audioSource == null) {
+        return;
+      }
+      await _load(platform, _audioSource!,
+          initialSeekValues:
+              _InitialSeekValues(position: position, index: currentIndex));
+    }
+  }
+
   Future<Duration?> _load(AudioPlayerPlatform platform, AudioSource source,
       {_InitialSeekValues? initialSeekValues}) async {
     final activationNumber = _activationCount;
@@ -860,6 +940,8 @@ class AudioPlayer {
       checkInterruption();
       source._shuffle(initialIndex: initialSeekValues?.index ?? 0);
       _broadcastSequence();
+      _androidPlaylistVersion = 0;
+      _androidPlaylistLoadCount++;
       _durationFuture = platform
           .load(LoadRequest(
             audioSourceMessage: source._toMessage(),
@@ -1211,6 +1293,120 @@ class AudioPlayer {
         usage: audioAttributes.usage.value));
   }
 
+  /// (Android) Caches the start of the first [count] progressive sources in
+  /// [audioSources], up to [maxBytes] each, so that skipping to them doesn't
+  /// wait on the network. The budget is in bytes since a source can't be
+  /// mapped from time to bytes until it has been fetched. Requires
+  /// [AudioLoadConfiguration.androidCache]. Progress is reported on
+  /// [androidPrefetchEventStream]. Has no effect while the player is idle or
+  /// on other platforms.
+  Future<void> androidPrefetch(List<AudioSource> audioSources,
+      {int? count, int? maxBytes}) async {
+    if (_disposed || !_isAndroid()) return;
+    for (final source in audioSources) {
+      await source._setup(this);
+    }
+    await _invokeAndroidMethod<void>('prefetch', <String, dynamic>{
+      'audioSources':
+          audioSources.map((source) => source._toMessage().toMap()).toList(),
+      'count': count,
+      'maxBytes': maxBytes,
+    });
+  }
+
+  /// (Android) Cancels every prefetch started by [androidPrefetch].
+  Future<void> androidCancelPrefetch() async {
+    await _invokeAndroidMethod<void>('cancelPrefetch');
+  }
+
+  /// (Android) Decodes [audioSource] into the min and max sample of each of
+  /// [bucketsPerSecond] buckets per second, across all channels. Buckets are
+  /// sent on [androidWaveformEventStream] as they are decoded, and completed
+  /// waveforms are cached on disk so that requesting them again is instant.
+  /// Replaces any extraction of the same source still running. Has no effect
+  /// while the player is idle or on other platforms.
+  Future<void> androidExtractWaveform(ProgressiveAudioSource audioSource,
+      {int bucketsPerSecond = 10}) async {
+    if (_disposed || !_isAndroid()) return;
+    await audioSource._setup(this);
+    await _invokeAndroidMethod<void>('extractWaveform', <String, dynamic>{
+      'id': audioSource._id,
+      'audioSource': audioSource._toMessage().toMap(),
+      'bucketsPerSecond': bucketsPerSecond,
+    });
+  }
+
+  /// (Android) Cancels the extraction of [audioSource]'s waveform.
+  Future<void> androidCancelWaveform(
+      ProgressiveAudioSource audioSource) async {
+    await _invokeAndroidMethod<void>(
+        'cancelWaveform', <String, dynamic>{'id': audioSource._id});
+  }
+
+  /// (Android) Fades the audio from its current fade level to [volume] over
+  /// [duration], starting with the next audio to be processed. The fade is
+  /// applied to each sample on top of [setVolume], so it needs no further
+  /// calls and doesn't click. Requires [AudioLoadConfiguration.androidFades].
+  /// Has no effect while the player is idle or on other platforms.
+  Future<void> androidFadeTo(double volume,
+      {Duration duration = Duration.zero,
+      AndroidFadeCurve curve = AndroidFadeCurve.linear}) async {
+    await _invokeAndroidMethod<void>('fade', <String, dynamic>{
+      'volume': volume,
+      'duration': duration.inMicroseconds,
+      'curve': curve.name,
+    });
+  }
+
+  /// (Android) Replaces the fades applied at the start and end of each item,
+  /// which are initially those of [AudioLoadConfiguration.androidFades].
+  /// Has no effect while the player is idle or on other platforms.
+  Future<void> setAndroidFades(AndroidFades fades) async {
+    await _invokeAndroidMethod<void>('setTransition', fades._toMap());
+  }
+
+  /// (Android) Returns a snapshot of this player's metrics. Requires
+  /// [AudioLoadConfiguration.androidMetrics]. Returns `null` while the player
+  /// is idle or on other platforms.
+  Future<AndroidMetricsSnapshot?> androidGetMetrics() async {
+    final map =
+        await _invokeAndroidMethod<Map<dynamic, dynamic>>('getMetrics');
+    return map == null ? null : AndroidMetricsSnapshot._fromMap(map);
+  }
+
+  /// (Android) Invokes a method that the platform interface doesn't know on
+  /// the native player. Returns `null` without invoking it while the player
+  /// is idle or on other platforms.
+  Future<T?> _invokeAndroidMethod<T>(String method,
+      [Map<String, dynamic>? arguments]) async {
+    if (_disposed || !_isAndroid()) return null;
+    final platform = await _platform;
+    if (platform is _IdleAudioPlayer) return null;
+    return _androidMethodChannel(platform).invokeMethod<T>(method, arguments);
+  }
+
+  /// (Android) Handles an event on the data channel that the platform
+  /// interface doesn't know.
+  void _onAndroidDataEvent(Map<dynamic, dynamic> map) {
+    if (_disposed) return;
+    switch (map['type']) {
+      case 'prefetch':
+        _androidPrefetchEventSubject.add(AndroidPrefetchEvent._fromMap(
+            map, _audioSources[map['id'] as String]));
+        break;
+      case 'metrics':
+        _androidMetricsSubject.add(AndroidMetricsSnapshot._fromMap(map));
+        break;
+      case 'waveform':
+        _androidWaveformEventSubject.add(AndroidWaveformEvent._fromMap(
+            map, _audioSources[map['id'] as String]));
+        break;
+      case 'visualizer':
+        _androidVisualizerSubject.add(AndroidVisualizerFrame._fromMap(map));
+        break;
+    }
+  }
+
   /// Release all resources associated with this player. You must invoke this
   /// after you are done with the player.
   Future<void> dispose() async {
@@ -1239,6 +1435,10 @@ class AudioPlayer {
     await _pitchSubject.close();
     await _sequenceSubject.close();
     await _shuffleIndicesSubject.close();
+    await _androidPrefetchEventSubject.close();
+    await _androidMetricsSubject.close();
+    await _androidWaveformEventSubject.close();
+    await _androidVisualizerSubject.close();
   }
 
   /// Switch to using the native platform when [active] is `true` and using the
@@ -1298,9 +1498,42 @@ class AudioPlayer {
     final currentIndex = this.currentIndex;
     final audioSource = _audioSource;
 
+    Stream<PlaybackEventMessage> playbackEventMessageStream(
+        AudioPlayerPlatform platform) {
+      // Android events are decoded here since the platform interface only
+      // understands maps, and drops the fields it doesn't know.
+      if (platform is! _IdleAudioPlayer && _isAndroid()) {
+        final decoder = _PlaybackEventDecoder();
+        return EventChannel('com.ryanheise.just_audio.events.${platform.id}')
+            .receiveBroadcastStream()
+            .map((dynamic event) => event is Uint8List
+                ? decoder.decode(event)
+                : _AndroidPlaybackEventMessage.fromMap(
+                    event as Map<dynamic, dynamic>));
+      }
+      return platform.playbackEventMessageStream;
+    }
+
+    Stream<PlayerDataMessage> playerDataMessageStream(
+        AudioPlayerPlatform platform) {
+      // Android also sends events tagged with a type on the data channel,
+      // which the platform interface would turn into empty messages.
+      if (platform is! _IdleAudioPlayer && _isAndroid()) {
+        return EventChannel('com.ryanheise.just_audio.data.${platform.id}')
+            .receiveBroadcastStream()
+            .cast<Map<dynamic, dynamic>>()
+            .expand((map) {
+          if (map['type'] == null) return [PlayerDataMessage.fromMap(map)];
+          _onAndroidDataEvent(map);
+          return const <PlayerDataMessage>[];
+        });
+      }
+      return platform.playerDataMessageStream;
+    }
+
     void subscribeToEvents(AudioPlayerPlatform platform) {
       _playerDataSubscription =
-          platform.playerDataMessageStream.listen((message) {
+          playerDataMessageStream(platform).listen((message) {
         if (message.playing != null && message.playing != playing) {
           _playingSubject.add(message.playing!);
         }
@@ -1322,7 +1555,7 @@ class AudioPlayer {
         }
       });
       _playbackEventSubscription =
-          platform.playbackEventMessageStream.listen((message) {
+          playbackEventMessageStream(platform).listen((message) {
         var duration = message.duration;
         var index = message.currentIndex ?? currentIndex;
         if (index != null && sequence != null && index < sequence!.length) {
@@ -1351,6 +1584,12 @@ class AudioPlayer {
               : IcyMetadata._fromMessage(message.icyMetadata!),
           currentIndex: index,
           androidAudioSessionId: message.androidAudioSessionId,
+          androidSpeed: message is _AndroidPlaybackEventMessage
+              ? message.speed
+              : null,
+          androidOffloadActive: message is _AndroidPlaybackEventMessage
+              ? message.offloadActive
+              : null,
         );
         _durationFuture = Future.value(playbackEvent.duration);
         if (playbackEvent == _playbackEvent) {
@@ -1382,7 +1621,7 @@ class AudioPlayer {
       // During initialisation, we must only use this platform reference in case
       // _platform is updated again during initialisation.
       final platform = active
-          ? await (_nativePlatform = _pluginPlatform.init(InitRequest(
+          ? await (_nativePlatform = _pluginPlatform.init(_InitRequest(
               id: _id,
               audioLoadConfiguration: _audioLoadConfiguration?._toMessage(),
               androidAudioEffects: (_isAndroid() || _isUnitTest())
@@ -1396,6 +1635,7 @@ class AudioPlayer {
                       .toList()
                   : [],
               androidOffloadSchedulingEnabled: _androidOffloadSchedulingEnabled,
+              androidEagerInitialization: _androidEagerInitialization,
             )))
           : (_idlePlatform =
               _IdleAudioPlayer(id: _id, sequenceStream: sequenceStream));
@@ -1586,6 +1826,16 @@ class PlaybackEvent {
   /// The current Android AudioSession ID if set.
   final int? androidAudioSessionId;
 
+  /// (Android) The rate at which the position advances from
+  /// [updatePosition], which is 0 while playback is paused, buffering or
+  /// suppressed, or `null` if not reported by the platform.
+  final double? androidSpeed;
+
+  /// (Android) Whether audio is currently played through audio offload,
+  /// enabled with `androidOffloadSchedulingEnabled`, or `null` if not
+  /// reported by the platform.
+  final bool? androidOffloadActive;
+
   PlaybackEvent({
     this.processingState = ProcessingState.idle,
     DateTime? updateTime,
@@ -1595,6 +1845,8 @@ class PlaybackEvent {
     this.icyMetadata,
     this.currentIndex,
     this.androidAudioSessionId,
+    this.androidSpeed,
+    this.androidOffloadActive,
   }) : updateTime = updateTime ?? DateTime.now();
 
   /// Returns a copy of this event with given properties replaced.
@@ -1607,6 +1859,8 @@ class PlaybackEvent {
     IcyMetadata? icyMetadata,
     int? currentIndex,
     int? androidAudioSessionId,
+    double? androidSpeed,
+    bool? androidOffloadActive,
   }) =>
       PlaybackEvent(
         processingState: processingState ?? this.processingState,
@@ -1618,6 +1872,9 @@ class PlaybackEvent {
         currentIndex: currentIndex ?? this.currentIndex,
         androidAudioSessionId:
             androidAudioSessionId ?? this.androidAudioSessionId,
+        androidSpeed: androidSpeed ?? this.androidSpeed,
+        androidOffloadActive:
+            androidOffloadActive ?? this.androidOffloadActive,
       );
 
   @override
@@ -1630,6 +1887,8 @@ class PlaybackEvent {
         icyMetadata,
         currentIndex,
         androidAudioSessionId,
+        androidSpeed,
+        androidOffloadActive,
       );
 
   @override
@@ -1643,13 +1902,113 @@ class PlaybackEvent {
       duration == other.duration &&
       icyMetadata == other.icyMetadata &&
       currentIndex == other.currentIndex &&
-      androidAudioSessionId == other.androidAudioSessionId;
+      androidAudioSessionId == other.androidAudioSessionId &&
+      androidSpeed == other.androidSpeed &&
+      androidOffloadActive == other.androidOffloadActive;
 
   @override
   String toString() =>
       "{processingState=$processingState, updateTime=$updateTime, updatePosition=$updatePosition, bufferedPosition=$bufferedPosition, duration=$duration, currentIndex=$currentIndex}";
 }
 
+/// (Android) The progress of a prefetch started by
+/// [AudioPlayer.androidPrefetch].
+class AndroidPrefetchEvent {
+  /// The source being prefetched, or `null` if it's no longer known to the
+  /// player.
+  final AudioSource? audioSource;
+
+  /// The state of the prefetch.
+  final AndroidPrefetchState state;
+
+  /// The number of bytes cached so far.
+  final int bytesCached;
+
+  /// The number of bytes that will be cached, or -1 if not known yet.
+  final int requestLength;
+
+  /// The error message if [state] is [AndroidPrefetchState.error].
+  final String? error;
+
+  AndroidPrefetchEvent._fromMap(Map<dynamic, dynamic> map, this.audioSource)
+      : state = AndroidPrefetchState.values.byName(map['state'] as String),
+        bytesCached = map['bytesCached'] as int,
+        requestLength = map['requestLength'] as int,
+        error = map['error'] as String?;
+
+  @override
+  String toString() =>
+      "{audioSource=$audioSource, state=$state, bytesCached=$bytesCached, requestLength=$requestLength, error=$error}";
+}
+
+/// (Android) The states of a prefetch.
+enum AndroidPrefetchState {
+  /// Some bytes have been cached.
+  progress,
+
+  /// Every byte of the budget has been cached, or the whole source if
+  /// smaller.
+  completed,
+
+  /// The prefetch was cancelled.
+  cancelled,
+
+  /// The prefetch failed.
+  error,
+}
+
+/// (Android) Buckets of a waveform requested by
+/// [AudioPlayer.androidExtractWaveform].
+class AndroidWaveformEvent {
+  /// The source whose waveform this is, or `null` if it's no longer known to
+  /// the player.
+  final AudioSource? audioSource;
+
+  /// The state of the extraction.
+  final AndroidWaveformState state;
+
+  /// The number of buckets per second of audio.
+  final int bucketsPerSecond;
+
+  /// The index of the first bucket in [data].
+  final int offset;
+
+  /// The min and max sample of each bucket from [offset], in pairs, or
+  /// `null` if this event carries no buckets.
+  final Float32List? data;
+
+  /// The duration of the source once it's known.
+  final Duration? duration;
+
+  /// The error message if [state] is [AndroidWaveformState.error].
+  final String? error;
+
+  AndroidWaveformEvent._fromMap(Map<dynamic, dynamic> map, this.audioSource)
+      : state = AndroidWaveformState.values.byName(map['state'] as String),
+        bucketsPerSecond = map['bucketsPerSecond'] as int,
+        offset = map['offset'] as int,
+        data = map['data'] as Float32List?,
+        duration = map['duration'] == null
+            ? null
+            : Duration(microseconds: map['duration'] as int),
+        error = map['error'] as String?;
+}
+
+/// (Android) The states of a waveform extraction.
+enum AndroidWaveformState {
+  /// More buckets have been decoded.
+  progress,
+
+  /// The last buckets have been decoded.
+  completed,
+
+  /// The extraction was cancelled.
+  cancelled,
+
+  /// The extraction failed.
+  error,
+}
+
 /// Enumerates the different processing states of a player.
 enum ProcessingState {
   /// The player has not loaded an [AudioSource].
@@ -1835,20 +2194,635 @@ class AudioLoadConfiguration {
   /// Speed control for live streams on Android.
   final AndroidLivePlaybackSpeedControl? androidLivePlaybackSpeedControl;
 
+  /// (Android) A disk cache shared by all players. If `null`, audio is not
+  /// cached.
+  final AndroidCache? androidCache;
+
+  /// (Android) The HTTP stack shared by all players with the same
+  /// configuration.
+  final AndroidNetworkConfiguration? androidNetworkConfiguration;
+
+  /// (Android) How load and playback errors are retried.
+  final AndroidRetryPolicy? androidRetryPolicy;
+
+  /// (Android) The thread that ExoPlayer runs on.
+  final AndroidPlaybackThread androidPlaybackThread;
+
+  /// (Android) How often the buffered position is checked.
+  final AndroidBufferWatcherMode androidBufferWatcherMode;
+
+  /// (Android) The interval over which bursts of playback events are merged.
+  /// If `null`, a default interval is used.
+  final Duration? androidEventCoalescingInterval;
+
+  /// (Android) How far a position may drift from the position extrapolated
+  /// from the last event before a new event is sent. If `null`, a default
+  /// tolerance is used.
+  final Duration? androidPositionTolerance;
+
+  /// (Android) How playback events are encoded on their way from the
+  /// platform.
+  final AndroidEventEncoding androidEventEncoding;
+
+  /// (Android) If set, adaptive streams are limited to this bit rate in bits
+  /// per second while on a metered network.
+  final int? androidMeteredNetworkMaxBitRate;
+
+  /// (Android) Latency and throughput metrics. If `null`, metrics are not
+  /// collected.
+  final AndroidMetrics? androidMetrics;
+
+  /// (Android) An in-process equalizer used in place of the
+  /// [AndroidEqualizer] audio effect.
+  final AndroidSoftwareEqualizer? androidSoftwareEqualizer;
+
+  /// (Android) Normalizes the loudness of each track. If `null`, tracks play
+  /// at their own loudness.
+  final AndroidLoudnessNormalization? androidLoudnessNormalization;
+
+  /// (Android) Fades applied at the start and end of each item.
+  final AndroidFades? androidFades;
+
+  /// (Android) A spectrum visualizer of the audio being played.
+  final AndroidVisualizer? androidVisualizer;
+
   const AudioLoadConfiguration({
     this.darwinLoadControl,
     this.androidLoadControl,
     this.androidLivePlaybackSpeedControl,
+    this.androidCache,
+    this.androidNetworkConfiguration,
+    this.androidRetryPolicy,
+    this.androidPlaybackThread = AndroidPlaybackThread.main,
+    this.androidBufferWatcherMode = AndroidBufferWatcherMode.fixed,
+    this.androidEventCoalescingInterval,
+    this.androidPositionTolerance,
+    this.androidEventEncoding = AndroidEventEncoding.map,
+    this.androidMeteredNetworkMaxBitRate,
+    this.androidMetrics,
+    this.androidSoftwareEqualizer,
+    this.androidLoudnessNormalization,
+    this.androidFades,
+    this.androidVisualizer,
   });
 
-  AudioLoadConfigurationMessage _toMessage() => AudioLoadConfigurationMessage(
+  AudioLoadConfigurationMessage _toMessage() => _AudioLoadConfigurationMessage(
         darwinLoadControl: darwinLoadControl?._toMessage(),
         androidLoadControl: androidLoadControl?._toMessage(),
         androidLivePlaybackSpeedControl:
             androidLivePlaybackSpeedControl?._toMessage(),
+        android: <String, dynamic>{
+          if (androidCache != null) 'androidCache': androidCache!._toMap(),
+          if (androidNetworkConfiguration != null)
+            'androidNetworkConfiguration':
+                androidNetworkConfiguration!._toMap(),
+          if (androidRetryPolicy != null)
+            'androidRetryPolicy': androidRetryPolicy!._toMap(),
+          'androidPlaybackThread': androidPlaybackThread.name,
+          'androidBufferWatcherMode': androidBufferWatcherMode.name,
+          if (androidEventCoalescingInterval != null)
+            'androidEventCoalescingInterval':
+                androidEventCoalescingInterval!.inMicroseconds,
+          if (androidPositionTolerance != null)
+            'androidPositionTolerance':
+                androidPositionTolerance!.inMicroseconds,
+          'androidEventEncoding': androidEventEncoding.name,
+          if (androidMeteredNetworkMaxBitRate != null)
+            'androidMeteredNetworkMaxBitRate': androidMeteredNetworkMaxBitRate,
+          if (androidMetrics != null)
+            'androidMetrics': androidMetrics!._toMap(),
+          if (androidSoftwareEqualizer != null)
+            'androidSoftwareEqualizer': androidSoftwareEqualizer!._toMap(),
+          if (androidLoudnessNormalization != null)
+            'androidLoudnessNormalization':
+                androidLoudnessNormalization!._toMap(),
+          if (androidFades != null) 'androidFades': androidFades!._toMap(),
+          if (androidVisualizer != null)
+            'androidVisualizer': androidVisualizer!._toMap(),
+        },
       );
 }
 
+/// The platform interface message only knows the cross-platform options, so
+/// the Android extensions are added as extra keys of the same map.
+class _AudioLoadConfigurationMessage extends AudioLoadConfigurationMessage {
+  final Map<String, dynamic> android;
+
+  const _AudioLoadConfigurationMessage({
+    required super.darwinLoadControl,
+    required super.androidLoadControl,
+    required super.androidLivePlaybackSpeedControl,
+    required this.android,
+  });
+
+  @override
+  Map<dynamic, dynamic> toMap() => <dynamic, dynamic>{
+        ...super.toMap(),
+        ...android,
+      };
+}
+
+/// An [InitRequest] with the Android init options that the platform
+/// interface doesn't know.
+class _InitRequest extends InitRequest {
+  final bool androidEagerInitialization;
+
+  _InitRequest({
+    required super.id,
+    super.audioLoadConfiguration,
+    super.androidAudioEffects,
+    super.darwinAudioEffects,
+    super.androidOffloadSchedulingEnabled,
+    this.androidEagerInitialization = false,
+  });
+
+  @override
+  Map<dynamic, dynamic> toMap() => <dynamic, dynamic>{
+        ...super.toMap(),
+        'androidEagerInitialization': androidEagerInitialization,
+      };
+}
+
+/// A [PlaybackEventMessage] with the fields that only Android sends.
+class _AndroidPlaybackEventMessage extends PlaybackEventMessage {
+  /// The rate at which the position advances from [updatePosition].
+  final double speed;
+
+  /// Whether audio is played through audio offload.
+  final bool offloadActive;
+
+  _AndroidPlaybackEventMessage({
+    required super.processingState,
+    required super.updateTime,
+    required super.updatePosition,
+    required super.bufferedPosition,
+    required super.duration,
+    required super.icyMetadata,
+    required super.currentIndex,
+    required super.androidAudioSessionId,
+    required this.speed,
+    required this.offloadActive,
+  });
+
+  factory _AndroidPlaybackEventMessage.fromMap(Map<dynamic, dynamic> map) {
+    final message = PlaybackEventMessage.fromMap(map);
+    return _AndroidPlaybackEventMessage(
+      processingState: message.processingState,
+      updateTime: message.updateTime,
+      updatePosition: message.updatePosition,
+      bufferedPosition: message.bufferedPosition,
+      duration: message.duration,
+      icyMetadata: message.icyMetadata,
+      currentIndex: message.currentIndex,
+      androidAudioSessionId: message.androidAudioSessionId,
+      speed: (map['speed'] as num).toDouble(),
+      offloadActive: map['androidOffloadActive'] as bool? ?? false,
+    );
+  }
+}
+
+/// Decodes playback events sent with [AndroidEventEncoding.binary]. The
+/// layout is documented in PlaybackEventCodec.java. ICY metadata is only
+/// sent when it changes, so the last value received is kept.
+/// updateElapsedRealtime isn't read since positions are extrapolated from
+/// updateTime, which Android reads from the wall clock for every event.
+class _PlaybackEventDecoder {
+  static const _version = 2;
+  static const _flagHasDuration = 1;
+  static const _flagHasIndex = 1 << 1;
+  static const _flagHasAudioSessionId = 1 << 2;
+  static const _flagHasIcyMetadata = 1 << 3;
+  static const _flagOffloadActive = 1 << 4;
+  static const _fixedSize = 56;
+
+  IcyMetadataMessage? _icyMetadata;
+
+  PlaybackEventMessage decode(Uint8List bytes) {
+    final data = ByteData.sublistView(bytes);
+    final version = data.getUint8(0);
+    if (version != _version) {
+      throw UnsupportedError('Unknown playback event version: $version');
+    }
+    final flags = data.getUint8(1);
+    if (flags & _flagHasIcyMetadata != 0) {
+      _icyMetadata = _decodeIcyMetadata(_ByteReader(data, _fixedSize));
+    }
+    return _AndroidPlaybackEventMessage(
+      processingState: ProcessingStateMessage.values[data.getUint8(2)],
+      updatePosition: Duration(microseconds: data.getInt64(4, Endian.little)),
+      updateTime: DateTime.fromMillisecondsSinceEpoch(
+          data.getInt64(12, Endian.little)),
+      bufferedPosition:
+          Duration(microseconds: data.getInt64(20, Endian.little)),
+      duration: flags & _flagHasDuration != 0
+          ? Duration(microseconds: data.getInt64(28, Endian.little))
+          : null,
+      icyMetadata: _icyMetadata,
+      currentIndex: flags & _flagHasIndex != 0
+          ? data.getInt32(36, Endian.little)
+          : null,
+      androidAudioSessionId: flags & _flagHasAudioSessionId != 0
+          ? data.getInt32(40, Endian.little)
+          : null,
+      speed: data.getFloat32(52, Endian.little),
+      offloadActive: flags & _flagOffloadActive != 0,
+    );
+  }
+
+  static IcyMetadataMessage _decodeIcyMetadata(_ByteReader reader) {
+    final info = reader.readBool()
+        ? IcyInfoMessage(title: reader.readString(), url: reader.readString())
+        : null;
+    final headers = reader.readBool()
+        ? IcyHeadersMessage(
+            bitrate: reader.readInt32(),
+            genre: reader.readString(),
+            name: reader.readString(),
+            metadataInterval: reader.readInt32(),
+            url: reader.readString(),
+            isPublic: reader.readBool(),
+          )
+        : null;
+    return IcyMetadataMessage(info: info, headers: headers);
+  }
+}
+
+/// Reads little-endian values from [ByteData] in sequence.
+class _ByteReader {
+  final ByteData _data;
+  int _offset;
+
+  _ByteReader(this._data, this._offset);
+
+  bool readBool() => _data.getUint8(_offset++) != 0;
+
+  int readInt32() {
+    final value = _data.getInt32(_offset, Endian.little);
+    _offset += 4;
+    return value;
+  }
+
+  /// A 2 byte length, -1 for null, followed by UTF-8 bytes.
+  String? readString() {
+    final length = _data.getInt16(_offset, Endian.little);
+    _offset += 2;
+    if (length < 0) return null;
+    final value = utf8.decode(
+        _data.buffer.asUint8List(_data.offsetInBytes + _offset, length));
+    _offset += length;
+    return value;
+  }
+}
+
+/// (Android) A disk cache of audio shared by all players. Progressive, HLS
+/// and DASH sources over HTTP are served from the cache, least recently used
+/// first out.
+class AndroidCache {
+  /// The maximum size of the cache in bytes. The cache is sized by the first
+  /// player that uses it.
+  final int maxCacheSize;
+
+  const AndroidCache({this.maxCacheSize = 256 * 1024 * 1024});
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'maxCacheSize': maxCacheSize,
+      };
+}
+
+/// (Android) The HTTP implementation used to load audio.
+enum AndroidNetworkBackend {
+  /// The platform's HttpURLConnection.
+  platform,
+
+  /// OkHttp, sharing connections between players.
+  okhttp,
+}
+
+/// (Android) Options for the HTTP stack. Players with identical options
+/// share connections.
+class AndroidNetworkConfiguration {
+  final AndroidNetworkBackend backend;
+  final Duration? connectTimeout;
+  final Duration? readTimeout;
+
+  /// (OkHttp) The number of idle connections kept open.
+  final int? maxIdleConnections;
+
+  /// (OkHttp) How long idle connections are kept open.
+  final Duration? keepAliveDuration;
+
+  const AndroidNetworkConfiguration({
+    this.backend = AndroidNetworkBackend.platform,
+    this.connectTimeout,
+    this.readTimeout,
+    this.maxIdleConnections,
+    this.keepAliveDuration,
+  });
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'backend':
+            backend == AndroidNetworkBackend.okhttp ? 'okhttp' : 'default',
+        'connectTimeout': connectTimeout?.inMicroseconds,
+        'readTimeout': readTimeout?.inMicroseconds,
+        'maxIdleConnections': maxIdleConnections,
+        'keepAliveDuration': keepAliveDuration?.inMicroseconds,
+      };
+}
+
+/// (Android) How load and playback errors are retried. Loads are retried
+/// with exponential backoff, and playback errors that outlast them resume or
+/// skip the item up to [maxPlayerRetries] times.
+class AndroidRetryPolicy {
+  final int maxLoadRetries;
+  final Duration initialDelay;
+  final Duration maxDelay;
+
+  /// The fraction by which each delay is randomized either way.
+  final double jitter;
+  final int maxPlayerRetries;
+
+  const AndroidRetryPolicy({
+    this.maxLoadRetries = 6,
+    this.initialDelay = const Duration(milliseconds: 500),
+    this.maxDelay = const Duration(seconds: 16),
+    this.jitter = 0.2,
+    this.maxPlayerRetries = 3,
+  });
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'maxLoadRetries': maxLoadRetries,
+        'initialDelay': initialDelay.inMicroseconds,
+        'maxDelay': maxDelay.inMicroseconds,
+        'jitter': jitter,
+        'maxPlayerRetries': maxPlayerRetries,
+      };
+}
+
+/// (Android) The thread that a player's ExoPlayer runs on.
+enum AndroidPlaybackThread {
+  /// The main thread, shared with the UI.
+  main,
+
+  /// A thread of its own.
+  dedicated,
+
+  /// One of a small pool of threads shared between players.
+  shared,
+}
+
+/// (Android) How often the buffered position is checked.
+enum AndroidBufferWatcherMode {
+  /// At fixed intervals while buffering or playing.
+  fixed,
+
+  /// Only while loading, at intervals that follow the loading rate.
+  adaptive,
+}
+
+/// (Android) How playback events are encoded on their way from the
+/// platform.
+enum AndroidEventEncoding {
+  /// A map with a string key per field.
+  map,
+
+  /// A fixed binary layout, which is smaller and builds no map on either
+  /// side.
+  binary,
+}
+
+/// (Android) Latency and throughput metrics of a player.
+class AndroidMetrics {
+  /// If set, a snapshot of the metrics is sent at this interval.
+  final Duration? snapshotInterval;
+
+  const AndroidMetrics({this.snapshotInterval});
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'snapshotInterval': snapshotInterval?.inMicroseconds,
+      };
+}
+
+/// (Android) A snapshot of a player's [AndroidMetrics]. Times are in
+/// milliseconds, except method call times which are in microseconds.
+class AndroidMetricsSnapshot {
+  /// The time from starting a load to being ready to play.
+  final AndroidMetricsHistogram loadToReady;
+
+  /// The time from starting a seek to being ready to play.
+  final AndroidMetricsHistogram seekToReady;
+
+  /// The number of times playback stalled to buffer.
+  final int rebufferCount;
+
+  /// The time spent stalled to buffer.
+  final AndroidMetricsHistogram rebufferDuration;
+
+  /// The number of bytes downloaded.
+  final int bytesDownloaded;
+
+  /// The latest bandwidth estimate in bits per second.
+  final int bandwidthEstimate;
+
+  /// The number of playback events dropped because listeners could already
+  /// extrapolate them.
+  final int droppedEvents;
+
+  /// The number of playback events merged into a later event.
+  final int coalescedEvents;
+
+  /// The time spent handling each method call, by method name.
+  final Map<String, AndroidMetricsHistogram> methodCalls;
+
+  /// Where the player's ExoPlayer came from: `pool`, `eager` or `lazy`, or
+  /// `null` if it hasn't been built yet.
+  final String? playerSource;
+
+  /// How long building the ExoPlayer took, or `null` if not known yet.
+  final Duration? playerBuildTime;
+
+  /// How long getting the ExoPlayer ready took on the playback thread, or
+  /// `null` if not known yet.
+  final Duration? playerInitTime;
+
+  /// How long the first method call waited for the ExoPlayer, or `null` if
+  /// not known yet.
+  final Duration? firstCallWait;
+
+  AndroidMetricsSnapshot._fromMap(Map<dynamic, dynamic> map)
+      : loadToReady = AndroidMetricsHistogram._fromMap(
+            map['loadToReady'] as Map<dynamic, dynamic>),
+        seekToReady = AndroidMetricsHistogram._fromMap(
+            map['seekToReady'] as Map<dynamic, dynamic>),
+        rebufferCount = map['rebufferCount'] as int,
+        rebufferDuration = AndroidMetricsHistogram._fromMap(
+            map['rebufferDuration'] as Map<dynamic, dynamic>),
+        bytesDownloaded = map['bytesDownloaded'] as int,
+        bandwidthEstimate = map['bandwidthEstimate'] as int,
+        droppedEvents = map['droppedEvents'] as int,
+        coalescedEvents = map['coalescedEvents'] as int,
+        methodCalls = (map['methodCalls'] as Map<dynamic, dynamic>).map(
+            (dynamic name, dynamic histogram) => MapEntry(
+                name as String,
+                AndroidMetricsHistogram._fromMap(
+                    histogram as Map<dynamic, dynamic>))),
+        playerSource = map['playerSource'] as String?,
+        playerBuildTime = _millisecondsOrNull(map['playerBuildTime'] as int),
+        playerInitTime = _millisecondsOrNull(map['playerInitTime'] as int),
+        firstCallWait = _millisecondsOrNull(map['firstCallWait'] as int);
+
+  static Duration? _millisecondsOrNull(int milliseconds) =>
+      milliseconds < 0 ? null : Duration(milliseconds: milliseconds);
+}
+
+/// (Android) A histogram in an [AndroidMetricsSnapshot]. Values are counted
+/// in power of two buckets: bucket i counts values from 2^(i-1) up to 2^i,
+/// and bucket 0 counts values below 1.
+class AndroidMetricsHistogram {
+  /// The number of values recorded.
+  final int count;
+
+  /// The sum of the values recorded.
+  final int sum;
+
+  /// The largest value recorded.
+  final int max;
+
+  /// The upper bounds of the buckets that the 50th, 90th and 99th
+  /// percentiles fall in.
+  final int p50;
+  final int p90;
+  final int p99;
+
+  /// The number of values in each bucket.
+  final List<int> buckets;
+
+  AndroidMetricsHistogram._fromMap(Map<dynamic, dynamic> map)
+      : count = map['count'] as int,
+        sum = map['sum'] as int,
+        max = map['max'] as int,
+        p50 = map['p50'] as int,
+        p90 = map['p90'] as int,
+        p99 = map['p99'] as int,
+        buckets = (map['buckets'] as List<dynamic>).cast<int>();
+}
+
+/// (Android) A band of an [AndroidSoftwareEqualizer].
+class AndroidSoftwareEqualizerBand {
+  /// The center frequency in Hz.
+  final double centerFrequency;
+  final double q;
+
+  const AndroidSoftwareEqualizerBand({
+    required this.centerFrequency,
+    this.q = 1.41,
+  });
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'centerFrequency': centerFrequency,
+        'q': q,
+      };
+}
+
+/// (Android) An in-process parametric equalizer. Once configured, the
+/// [AndroidEqualizer] audio effect controls this equalizer instead of the
+/// framework one.
+class AndroidSoftwareEqualizer {
+  /// The bands, or `null` for five bands from 60Hz to 14kHz.
+  final List<AndroidSoftwareEqualizerBand>? bands;
+
+  const AndroidSoftwareEqualizer({this.bands});
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        if (bands != null)
+          'bands': bands!.map((band) => band._toMap()).toList(),
+      };
+}
+
+/// (Android) Normalizes each track to a target loudness once it has been
+/// played through once.
+class AndroidLoudnessNormalization {
+  /// The target loudness in LUFS.
+  final double targetLoudness;
+
+  /// The maximum gain in dB.
+  final double maxGain;
+
+  const AndroidLoudnessNormalization({
+    this.targetLoudness = -14.0,
+    this.maxGain = 6.0,
+  });
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'targetLoudness': targetLoudness,
+        'maxGain': maxGain,
+      };
+}
+
+/// (Android) The shape of a fade.
+enum AndroidFadeCurve { linear, equalPower, sCurve }
+
+/// (Android) A fade of the given duration.
+class AndroidFade {
+  final Duration duration;
+  final AndroidFadeCurve curve;
+
+  const AndroidFade({
+    required this.duration,
+    this.curve = AndroidFadeCurve.linear,
+  });
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'duration': duration.inMicroseconds,
+        'curve': curve.name,
+      };
+}
+
+/// (Android) Fades applied at the start and end of each item.
+class AndroidFades {
+  final AndroidFade? fadeIn;
+  final AndroidFade? fadeOut;
+
+  const AndroidFades({this.fadeIn, this.fadeOut});
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        if (fadeIn != null) 'fadeIn': fadeIn!._toMap(),
+        if (fadeOut != null) 'fadeOut': fadeOut!._toMap(),
+      };
+}
+
+/// (Android) A spectrum visualizer. Frames are sent on the player's data
+/// channel.
+class AndroidVisualizer {
+  /// The number of samples in each FFT, rounded down to a power of two.
+  final int fftSize;
+
+  /// The number of frames per second.
+  final double frameRate;
+
+  const AndroidVisualizer({this.fftSize = 1024, this.frameRate = 30.0});
+
+  Map<String, dynamic> _toMap() => <String, dynamic>{
+        'fftSize': fftSize,
+        'frameRate': frameRate,
+      };
+}
+
+/// (Android) A frame of the spectrum visualizer enabled with
+/// [AndroidVisualizer].
+class AndroidVisualizerFrame {
+  /// The sample rate of the analysed audio in Hz.
+  final int sampleRate;
+
+  /// The amplitude of each FFT bin from 0 Hz upwards, `fftSize / 2` in all,
+  /// where a full scale sine has an amplitude of 1. Bin `i` is centred on
+  /// `i * sampleRate / fftSize` Hz.
+  final Float32List fft;
+
+  AndroidVisualizerFrame._fromMap(Map<dynamic, dynamic> map)
+      : sampleRate = map['sampleRate'] as int,
+        fft = map['fft'] as Float32List;
+}
+
 /// Buffering and loading options for iOS/macOS.
 class DarwinLoadControl {
   /// (iOS/macOS) Whether the player will wait for sufficient data to be
@@ -2540,12 +3514,7 @@ class ConcatenatingAudioSource extends AudioSource {
     if (_player != null) {
       _player!._broadcastSequence();
       await audioSource._setup(_player!);
-      await (await _player!._platform).concatenatingInsertAll(
-          ConcatenatingInsertAllRequest(
-              id: _id,
-              index: index,
-              children: [audioSource._toMessage()],
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _insertAll(index, [audioSource]);
     }
   }
 
@@ -2556,12 +3525,7 @@ class ConcatenatingAudioSource extends AudioSource {
     if (_player != null) {
       _player!._broadcastSequence();
       await audioSource._setup(_player!);
-      await (await _player!._platform).concatenatingInsertAll(
-          ConcatenatingInsertAllRequest(
-              id: _id,
-              index: index,
-              children: [audioSource._toMessage()],
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _insertAll(index, [audioSource]);
     }
   }
 
@@ -2575,12 +3539,7 @@ class ConcatenatingAudioSource extends AudioSource {
       for (var child in children) {
         await child._setup(_player!);
       }
-      await (await _player!._platform).concatenatingInsertAll(
-          ConcatenatingInsertAllRequest(
-              id: _id,
-              index: index,
-              children: children.map((child) => child._toMessage()).toList(),
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _insertAll(index, children);
     }
   }
 
@@ -2593,12 +3552,7 @@ class ConcatenatingAudioSource extends AudioSource {
       for (var child in children) {
         await child._setup(_player!);
       }
-      await (await _player!._platform).concatenatingInsertAll(
-          ConcatenatingInsertAllRequest(
-              id: _id,
-              index: index,
-              children: children.map((child) => child._toMessage()).toList(),
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _insertAll(index, children);
     }
   }
 
@@ -2609,12 +3563,7 @@ class ConcatenatingAudioSource extends AudioSource {
     _shuffleOrder.removeRange(index, index + 1);
     if (_player != null) {
       _player!._broadcastSequence();
-      await (await _player!._platform).concatenatingRemoveRange(
-          ConcatenatingRemoveRangeRequest(
-              id: _id,
-              startIndex: index,
-              endIndex: index + 1,
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _removeRange(index, index + 1);
     }
   }
 
@@ -2625,12 +3574,7 @@ class ConcatenatingAudioSource extends AudioSource {
     _shuffleOrder.removeRange(start, end);
     if (_player != null) {
       _player!._broadcastSequence();
-      await (await _player!._platform).concatenatingRemoveRange(
-          ConcatenatingRemoveRangeRequest(
-              id: _id,
-              startIndex: start,
-              endIndex: end,
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _removeRange(start, end);
     }
   }
 
@@ -2641,12 +3585,53 @@ class ConcatenatingAudioSource extends AudioSource {
     _shuffleOrder.insert(newIndex, 1);
     if (_player != null) {
       _player!._broadcastSequence();
-      await (await _player!._platform).concatenatingMove(
-          ConcatenatingMoveRequest(
-              id: _id,
-              currentIndex: currentIndex,
-              newIndex: newIndex,
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      final shuffleOrder = List.of(_shuffleOrder.indices);
+      await _player!._editPlaylist({
+        'type': 'move',
+        'id': _id,
+        'currentIndex': currentIndex,
+        'newIndex': newIndex,
+        'shuffleOrder': shuffleOrder,
+      }, (platform) async {
+        await platform.concatenatingMove(ConcatenatingMoveRequest(
+            id: _id,
+            currentIndex: currentIndex,
+            newIndex: newIndex,
+            shuffleOrder: shuffleOrder));
+      });
+    }
+  }
+
+  /// (Untested) Replaces the [AudioSource] at [index] with [audioSource],
+  /// keeping its place in the shuffle order.
+  Future<void> replace(int index, AudioSource audioSource) async {
+    final oldAudioSource = children[index];
+    children[index] = audioSource;
+    if (_player != null) {
+      _player!._broadcastSequence();
+      await audioSource._setup(_player!);
+      await _player!._editPlaylist({
+        'type': 'replace',
+        'id': oldAudioSource._id,
+        'audioSource': audioSource._toMessage().toMap(),
+      }, (platform) async {
+        // The platform interface can't replace, so remove and insert.
+        final shuffleOrder = List.of(_shuffleOrder.indices);
+        await platform.concatenatingRemoveRange(
+            ConcatenatingRemoveRangeRequest(
+                id: _id,
+                startIndex: index,
+                endIndex: index + 1,
+                shuffleOrder: [
+                  for (final i in shuffleOrder)
+                    if (i != index) i > index ? i - 1 : i
+                ]));
+        await platform.concatenatingInsertAll(ConcatenatingInsertAllRequest(
+            id: _id,
+            index: index,
+            children: [audioSource._toMessage()],
+            shuffleOrder: shuffleOrder));
+      });
     }
   }
 
@@ -2657,15 +3642,45 @@ class ConcatenatingAudioSource extends AudioSource {
     _shuffleOrder.clear();
     if (_player != null) {
       _player!._broadcastSequence();
-      await (await _player!._platform).concatenatingRemoveRange(
-          ConcatenatingRemoveRangeRequest(
-              id: _id,
-              startIndex: 0,
-              endIndex: end,
-              shuffleOrder: List.of(_shuffleOrder.indices)));
+      await _removeRange(0, end);
     }
   }
 
+  Future<void> _insertAll(int index, List<AudioSource> children) {
+    final messages = children.map((child) => child._toMessage()).toList();
+    final shuffleOrder = List.of(_shuffleOrder.indices);
+    return _player!._editPlaylist({
+      'type': 'insert',
+      'id': _id,
+      'index': index,
+      'children': messages.map((message) => message.toMap()).toList(),
+      'shuffleOrder': shuffleOrder,
+    }, (platform) async {
+      await platform.concatenatingInsertAll(ConcatenatingInsertAllRequest(
+          id: _id,
+          index: index,
+          children: messages,
+          shuffleOrder: shuffleOrder));
+    });
+  }
+
+  Future<void> _removeRange(int start, int end) {
+    final shuffleOrder = List.of(_shuffleOrder.indices);
+    return _player!._editPlaylist({
+      'type': 'remove',
+      'id': _id,
+      'startIndex': start,
+      'endIndex': end,
+      'shuffleOrder': shuffleOrder,
+    }, (platform) async {
+      await platform.concatenatingRemoveRange(ConcatenatingRemoveRangeRequest(
+          id: _id,
+          startIndex: start,
+          endIndex: end,
+          shuffleOrder: shuffleOrder));
+    });
+  }
+
   /// The number of [AudioSource]s.
   int get length => children.length;
 